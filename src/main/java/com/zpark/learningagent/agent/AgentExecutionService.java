@@ -0,0 +1,122 @@
+package com.zpark.learningagent.agent;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 智能体执行服务
+ * 每次智能体运行占用一个虚拟线程，阻塞在大模型 HTTP 调用上也不会占用公共 ForkJoinPool。
+ * 同时运行的智能体数由信号量限制，超出的在有界队列中等待；队列也满时立即拒绝并给出建议的重试时间。
+ */
+@Component
+public class AgentExecutionService implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(AgentExecutionService.class);
+
+    private final int maxConcurrent;
+
+    private final int maxQueued;
+
+    private final Semaphore permits;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-", 0).factory());
+
+    // 已接纳的任务数（运行中 + 排队中）
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    // 单次运行耗时的指数滑动平均（毫秒），用于估算重试时间
+    private volatile double averageRunMillis = 30_000;
+
+    public AgentExecutionService(@Value("${agent.executor.max-concurrent:16}") int maxConcurrent,
+                                 @Value("${agent.executor.max-queued:32}") int maxQueued) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * 提交一次智能体运行，容量已满时抛出 AgentRejectedException
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (admitted.incrementAndGet() > maxConcurrent + maxQueued) {
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            long retryAfter = estimateRetryAfterSeconds();
+            log.warn("智能体执行队列已满，拒绝请求，建议 {} 秒后重试", retryAfter);
+            throw new AgentRejectedException("当前请求过多，请稍后重试", retryAfter);
+        }
+        try {
+            executor.execute(() -> runWithPermit(task));
+        } catch (RuntimeException e) {
+            admitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void runWithPermit(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            admitted.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        running.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("智能体运行异常", e);
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            averageRunMillis = averageRunMillis * 0.8 + elapsed * 0.2;
+            running.decrementAndGet();
+            completed.incrementAndGet();
+            admitted.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * 按排队长度和平均运行时间估算需要等待多久才会有空位
+     */
+    private long estimateRetryAfterSeconds() {
+        int queued = Math.max(0, admitted.get() - running.get());
+        double waves = (double) (queued + 1) / maxConcurrent;
+        return Math.max(1, (long) Math.ceil(waves * averageRunMillis / 1000));
+    }
+
+    /**
+     * 当前运行和排队情况
+     */
+    public Stats stats() {
+        int runningNow = running.get();
+        return new Stats(runningNow, Math.max(0, admitted.get() - runningNow), maxConcurrent, maxQueued,
+                completed.get(), rejected.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public record Stats(int running, int queued, int maxConcurrent, int maxQueued, long completed, long rejected) {
+    }
+}
@@ -0,0 +1,140 @@
+package com.zpark.learningagent.agent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 智能体指标
+ * 记录每步耗时、思考/行动各阶段耗时、大模型调用耗时和 token 用量、每次运行的步数以及正在运行的智能体数，
+ * 通过 Actuator 以 Prometheus 格式暴露。同一个实例随模板在所有请求之间共享，必须是线程安全的。
+ */
+public final class AgentMetrics {
+
+    // 没有配置指标注册表时使用：不含任何子注册表的组合注册表，记录操作都是空操作
+    private static final AgentMetrics NOOP = new AgentMetrics(new CompositeMeterRegistry());
+
+    private final MeterRegistry registry;
+
+    // 正在运行的智能体数
+    private final AtomicInteger activeRuns = new AtomicInteger();
+
+    public AgentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        registry.gauge("agent.active", activeRuns);
+    }
+
+    public static AgentMetrics noop() {
+        return NOOP;
+    }
+
+    /**
+     * 一次运行开始，返回开始时间（纳秒），结束时传给 runFinished
+     */
+    public long runStarted() {
+        activeRuns.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * 一次运行结束
+     *
+     * @param outcome completed / interrupted / timeout / error
+     */
+    public void runFinished(String agent, long startNanos, int steps, String outcome) {
+        activeRuns.decrementAndGet();
+        Timer.builder("agent.run.duration")
+                .description("智能体整次运行耗时")
+                .tag("agent", name(agent))
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("agent.run.steps")
+                .description("每次运行执行的步数")
+                .tag("agent", name(agent))
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(steps);
+    }
+
+    /**
+     * 单步耗时
+     *
+     * @param outcome success / timeout / cancelled / error
+     */
+    public void recordStep(String agent, long nanos, String outcome) {
+        Timer.builder("agent.step.duration")
+                .description("智能体单步耗时")
+                .tag("agent", name(agent))
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 步内各阶段耗时，如 think / act / plan / execute
+     */
+    public void recordPhase(String agent, String phase, long nanos) {
+        Timer.builder("agent.phase.duration")
+                .description("智能体每步内各阶段耗时")
+                .tag("agent", name(agent))
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 一次大模型调用的耗时和 token 用量；response 为 null 表示调用失败
+     */
+    public void recordLlmCall(String agent, long nanos, ChatResponse response) {
+        Timer.builder("agent.llm.duration")
+                .description("大模型调用耗时")
+                .tag("agent", name(agent))
+                .tag("outcome", response != null ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (response == null || response.getMetadata() == null) {
+            return;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null) {
+            return;
+        }
+        Number promptTokens = usage.getPromptTokens();
+        Number totalTokens = usage.getTotalTokens();
+        long prompt = promptTokens != null ? promptTokens.longValue() : 0;
+        long completion = totalTokens != null ? Math.max(0, totalTokens.longValue() - prompt) : 0;
+        recordTokens(agent, "prompt", prompt);
+        recordTokens(agent, "completion", completion);
+    }
+
+    private void recordTokens(String agent, String type, long tokens) {
+        if (tokens <= 0) {
+            return;
+        }
+        DistributionSummary.builder("agent.llm.tokens")
+                .description("每次大模型调用的 token 数")
+                .baseUnit("tokens")
+                .tag("agent", name(agent))
+                .tag("type", type)
+                .register(registry)
+                .record(tokens);
+    }
+
+    private static String name(String agent) {
+        return agent != null ? agent : "unknown";
+    }
+
+    public int activeRuns() {
+        return activeRuns.get();
+    }
+}
@@ -0,0 +1,20 @@
+package com.zpark.learningagent.agent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 智能体执行服务已满时抛出，携带建议的重试等待秒数
+ */
+public class AgentRejectedException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public AgentRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
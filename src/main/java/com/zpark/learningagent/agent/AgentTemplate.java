@@ -0,0 +1,88 @@
+package com.zpark.learningagent.agent;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.zpark.learningagent.agent.context.ContextPolicy;
+import com.zpark.learningagent.agent.context.TokenBudgetContextPolicy;
+import lombok.Getter;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+
+/**
+ * 智能体模板：同一类智能体在所有请求之间共享的不可变部分
+ * 包括名称、提示词、最大步数、ChatClient、工具列表、模型选项、并行工具执行器、上下文策略、时间预算和指标，只在启动时构建一次；
+ * 每次请求基于模板创建的智能体实例只分配消息列表、步数、状态等会话级状态。
+ */
+@Getter
+public final class AgentTemplate {
+
+    private final String name;
+
+    private final String systemPrompt;
+
+    private final String nextStepPrompt;
+
+    private final int maxSteps;
+
+    private final ChatClient chatClient;
+
+    // 所有实例共享同一个数组，使用方不能修改
+    private final ToolCallback[] availableTools;
+
+    // 禁用Spring AI内置工具调用的配置项
+    private final ChatOptions chatOptions;
+
+    private final ParallelToolExecutor toolExecutor;
+
+    // 构建每次模型调用上下文的策略，必须是无状态的
+    private final ContextPolicy contextPolicy;
+
+    // 单步和整次运行的时间预算
+    private final Duration stepTimeout;
+    private final Duration runTimeout;
+
+    // 步骤、阶段、大模型调用等指标
+    private final AgentMetrics metrics;
+
+    public AgentTemplate(String name, String systemPrompt, String nextStepPrompt, int maxSteps,
+                         ChatClient chatClient, ToolCallback[] availableTools, int maxParallelTools) {
+        this(name, systemPrompt, nextStepPrompt, maxSteps, chatClient, availableTools, maxParallelTools,
+                TokenBudgetContextPolicy.defaults());
+    }
+
+    public AgentTemplate(String name, String systemPrompt, String nextStepPrompt, int maxSteps,
+                         ChatClient chatClient, ToolCallback[] availableTools, int maxParallelTools,
+                         ContextPolicy contextPolicy) {
+        this(name, systemPrompt, nextStepPrompt, maxSteps, chatClient, availableTools, maxParallelTools,
+                contextPolicy, Duration.ofMinutes(2), Duration.ofMinutes(5));
+    }
+
+    public AgentTemplate(String name, String systemPrompt, String nextStepPrompt, int maxSteps,
+                         ChatClient chatClient, ToolCallback[] availableTools, int maxParallelTools,
+                         ContextPolicy contextPolicy, Duration stepTimeout, Duration runTimeout) {
+        this(name, systemPrompt, nextStepPrompt, maxSteps, chatClient, availableTools, maxParallelTools,
+                contextPolicy, stepTimeout, runTimeout, AgentMetrics.noop());
+    }
+
+    public AgentTemplate(String name, String systemPrompt, String nextStepPrompt, int maxSteps,
+                         ChatClient chatClient, ToolCallback[] availableTools, int maxParallelTools,
+                         ContextPolicy contextPolicy, Duration stepTimeout, Duration runTimeout,
+                         AgentMetrics metrics) {
+        this.name = name;
+        this.systemPrompt = systemPrompt;
+        this.nextStepPrompt = nextStepPrompt;
+        this.maxSteps = maxSteps;
+        this.chatClient = chatClient;
+        this.availableTools = availableTools.clone();
+        this.chatOptions = DashScopeChatOptions.builder()
+                .withProxyToolCalls(true)
+                .build();
+        this.toolExecutor = new ParallelToolExecutor(this.availableTools, maxParallelTools);
+        this.contextPolicy = contextPolicy;
+        this.stepTimeout = stepTimeout;
+        this.runTimeout = runTimeout;
+        this.metrics = metrics;
+    }
+}
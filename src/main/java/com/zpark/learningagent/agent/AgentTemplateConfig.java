@@ -0,0 +1,36 @@
+package com.zpark.learningagent.agent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 智能体模板配置类
+ * 作用：在启动时构建一次各智能体的不可变模板，请求到来时只基于模板创建轻量的会话实例
+ */
+@Configuration
+public class AgentTemplateConfig {
+
+    @Value("${agent.step-timeout-seconds:120}")
+    private long stepTimeoutSeconds;
+
+    @Value("${agent.run-timeout-seconds:300}")
+    private long runTimeoutSeconds;
+
+    @Bean
+    public AgentMetrics agentMetrics(MeterRegistry meterRegistry) {
+        return new AgentMetrics(meterRegistry);
+    }
+
+    @Bean
+    public AgentTemplate learningManusTemplate(ToolCallback[] allTools, ChatModel dashscopeChatModel,
+                                               AgentMetrics agentMetrics) {
+        return LearningManus.createTemplate(allTools, dashscopeChatModel,
+                Duration.ofSeconds(stepTimeoutSeconds), Duration.ofSeconds(runTimeoutSeconds), agentMetrics);
+    }
+}
@@ -12,9 +12,22 @@ import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * 抽象基础代理类，用于管理代理的状态和执行步骤
@@ -24,6 +37,18 @@ import java.util.concurrent.CompletableFuture;
 public abstract class BaseAgent {
     private static final Logger log = LoggerFactory.getLogger(BaseAgent.class);
 
+    // 未指定执行器时使用的虚拟线程执行器，避免阻塞调用占用公共 ForkJoinPool
+    private static final Executor DEFAULT_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 每一步在独立的虚拟线程上执行，超时或中断时可以直接取消
+    private static final ExecutorService STEP_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 取消步骤后等待其线程退出的最长时间，避免 cleanup 清空消息列表时步骤还在往里写
+    private static final Duration CANCEL_GRACE = Duration.ofSeconds(5);
+
+    // SSE 连接超时在整次运行预算之外留出的余量，保证超时由运行循环处理并正常收尾
+    private static final Duration EMITTER_TIMEOUT_MARGIN = Duration.ofSeconds(30);
+
     private String name;
     private String systemPrompt;
     private String nextStepPrompt;
@@ -34,9 +59,39 @@ public abstract class BaseAgent {
     // 中断标志
     private volatile boolean interrupted = false;
 
+    // 单步和整次运行的时间预算
+    private Duration stepTimeout = Duration.ofMinutes(2);
+    private Duration runTimeout = Duration.ofMinutes(5);
+
+    // 正在执行的步骤，中断时取消它以终止进行中的模型调用和工具 I/O
+    private volatile Future<String> currentStep;
+
     private ChatClient chatClient;
     private List<Message> messageList = new ArrayList<>();
 
+    // 流式运行时接收增量输出（如模型逐个生成的 token）的回调，非流式运行时为 null
+    private Consumer<String> streamSink;
+
+    // 步骤耗时、运行步数等指标，未基于模板创建时不记录
+    private AgentMetrics metrics = AgentMetrics.noop();
+
+    protected BaseAgent() {
+    }
+
+    /**
+     * 基于模板创建：共享模板中的提示词、步数和 ChatClient，只分配本次运行的状态
+     */
+    protected BaseAgent(AgentTemplate template) {
+        this.name = template.getName();
+        this.systemPrompt = template.getSystemPrompt();
+        this.nextStepPrompt = template.getNextStepPrompt();
+        this.maxSteps = template.getMaxSteps();
+        this.chatClient = template.getChatClient();
+        this.stepTimeout = template.getStepTimeout();
+        this.runTimeout = template.getRunTimeout();
+        this.metrics = template.getMetrics();
+    }
+
     /**
      * 运行代理
      */
@@ -52,13 +107,22 @@ public abstract class BaseAgent {
         messageList.add(new UserMessage(userPrompt));
         List<String> results = new ArrayList<>();
         
+        long runStart = metrics.runStarted();
+        String outcome = "completed";
+        long runDeadline = System.nanoTime() + runTimeout.toNanos();
         try {
             for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
+                if (interrupted) {
+                    state = AgentState.FINISHED;
+                    outcome = "interrupted";
+                    results.add("执行已被用户中断");
+                    break;
+                }
                 int stepNumber = i + 1;
                 ccurrentStep = stepNumber;
                 log.info("Executing step " + stepNumber + "/" + maxSteps);
                 
-                String stepResult = step();
+                String stepResult = executeStep(runDeadline);
                 String result = "Step " + stepNumber + ": " + stepResult;
                 results.add(result);
             }
@@ -68,11 +132,23 @@ public abstract class BaseAgent {
                 results.add("Terminated: Reached max steps (" + maxSteps + ")");
             }
             return StringUtils.join(results, "\n");
+        } catch (CancellationException e) {
+            state = AgentState.FINISHED;
+            outcome = "interrupted";
+            results.add("执行已被用户中断");
+            return StringUtils.join(results, "\n");
+        } catch (TimeoutException e) {
+            state = AgentState.ERROR;
+            outcome = "timeout";
+            results.add("执行超时: " + e.getMessage());
+            return StringUtils.join(results, "\n");
         } catch (Exception e) {
             state = AgentState.ERROR;
+            outcome = "error";
             log.error("Error running agent: " + e.getMessage(), e);
             return "执行错误: " + e.getMessage();
         } finally {
+            metrics.runFinished(name, runStart, ccurrentStep, outcome);
             this.cleanup();
         }
     }
@@ -81,7 +157,15 @@ public abstract class BaseAgent {
      * 运行代理（流式输出）
      */
     public SseEmitter runStream(String userPrompt) {
-        SseEmitter emitter = new SseEmitter(300000L);
+        return runStream(userPrompt, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * 运行代理（流式输出），在指定的执行器上运行
+     * 执行器拒绝时异常直接抛给调用方，便于在返回响应前做准入控制
+     */
+    public SseEmitter runStream(String userPrompt, Executor executor) {
+        SseEmitter emitter = new SseEmitter(runTimeout.plus(EMITTER_TIMEOUT_MARGIN).toMillis());
 
         CompletableFuture.runAsync(() -> {
             try {
@@ -98,11 +182,24 @@ public abstract class BaseAgent {
 
                 state = AgentState.RUNNING;
                 messageList.add(new UserMessage(userPrompt));
+                // 步骤执行过程中的增量输出直接推给前端，连接断开时中断代理
+                streamSink = chunk -> {
+                    try {
+                        emitter.send(chunk);
+                    } catch (IOException e) {
+                        log.warn("SSE 推送失败，中断代理: {}", e.getMessage());
+                        interrupt();
+                    }
+                };
 
+                long runStart = metrics.runStarted();
+                String outcome = "completed";
+                long runDeadline = System.nanoTime() + runTimeout.toNanos();
                 try {
                     for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
                         if (interrupted) {
                             state = AgentState.FINISHED;
+                            outcome = "interrupted";
                             emitter.send("执行已被用户中断");
                             break;
                         }
@@ -111,7 +208,7 @@ public abstract class BaseAgent {
                         ccurrentStep = stepNumber;
                         log.info("Executing step " + stepNumber + "/" + maxSteps);
 
-                        String stepResult = step();
+                        String stepResult = executeStep(runDeadline);
                         
                         String outputContent = getStreamOutput();
                         if (outputContent != null && !outputContent.isEmpty()) {
@@ -124,8 +221,19 @@ public abstract class BaseAgent {
                         emitter.send("执行结束: 达到最大步骤 (" + maxSteps + ")");
                     }
                     emitter.complete();
+                } catch (CancellationException e) {
+                    state = AgentState.FINISHED;
+                    outcome = "interrupted";
+                    sendQuietly(emitter, "执行已被用户中断");
+                    emitter.complete();
+                } catch (TimeoutException e) {
+                    state = AgentState.ERROR;
+                    outcome = "timeout";
+                    sendQuietly(emitter, "执行超时: " + e.getMessage());
+                    emitter.complete();
                 } catch (Exception e) {
                     state = AgentState.ERROR;
+                    outcome = "error";
                     log.error("执行智能体失败", e);
                     try {
                         emitter.send("执行错误: " + e.getMessage());
@@ -134,36 +242,122 @@ public abstract class BaseAgent {
                         emitter.completeWithError(ex);
                     }
                 } finally {
+                    metrics.runFinished(name, runStart, ccurrentStep, outcome);
                     this.cleanup();
                 }
             } catch (Exception e) {
                 log.error("SSE stream error", e);
                 emitter.completeWithError(e);
             }
-        });
+        }, executor);
 
+        // 连接超时或提前关闭时只中断运行，由运行循环在步骤退出后统一清理
         emitter.onTimeout(() -> {
-            this.state = AgentState.ERROR;
-            this.cleanup();
+            interrupt();
             log.warn("SSE connection timed out");
         });
 
         emitter.onCompletion(() -> {
             if (this.state == AgentState.RUNNING) {
-                this.state = AgentState.FINISHED;
+                interrupt();
             }
-            this.cleanup();
             log.info("SSE connection completed");
         });
 
         return emitter;
     }
 
+    /**
+     * 在独立的虚拟线程上执行一步，等待时间不超过单步期限和整次运行剩余时间中较小的一个
+     * 超时时取消该步（中断其线程，进行中的流式调用和工具 I/O 随之终止）并抛出 TimeoutException；
+     * 被 interrupt() 取消时抛出 CancellationException。两种情况都会等该步的线程退出（最多 CANCEL_GRACE）再返回，
+     * 之后的 cleanup 不会和仍在收尾的步骤同时修改消息列表
+     */
+    protected String executeStep(long runDeadline) throws TimeoutException, InterruptedException {
+        long remaining = runDeadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new TimeoutException("超过整次运行的时间预算 " + runTimeout.toSeconds() + " 秒");
+        }
+        boolean stepLimited = stepTimeout.toNanos() <= remaining;
+        long stepStart = System.nanoTime();
+        String outcome = "error";
+        // started 由步骤线程或取消方先抢到：步骤线程抢到才执行，取消方抢到说明步骤不会再开始
+        AtomicBoolean started = new AtomicBoolean();
+        CountDownLatch exited = new CountDownLatch(1);
+        Future<String> future = STEP_EXECUTOR.submit(() -> {
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return step();
+            } finally {
+                exited.countDown();
+            }
+        });
+        currentStep = future;
+        try {
+            // interrupt() 可能在登记 currentStep 之前发生
+            if (interrupted) {
+                future.cancel(true);
+            }
+            String result = future.get(Math.min(stepTimeout.toNanos(), remaining), TimeUnit.NANOSECONDS);
+            outcome = "success";
+            return result;
+        } catch (CancellationException e) {
+            outcome = "cancelled";
+            awaitStepExit(started, exited);
+            throw e;
+        } catch (TimeoutException e) {
+            outcome = "timeout";
+            future.cancel(true);
+            awaitStepExit(started, exited);
+            throw new TimeoutException(stepLimited
+                    ? "第 " + ccurrentStep + " 步超过单步时间预算 " + stepTimeout.toSeconds() + " 秒"
+                    : "超过整次运行的时间预算 " + runTimeout.toSeconds() + " 秒");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(cause);
+        } finally {
+            currentStep = null;
+            metrics.recordStep(name, System.nanoTime() - stepStart, outcome);
+        }
+    }
+
+    /**
+     * 等待已取消的步骤线程退出，超过 CANCEL_GRACE 仍未退出时记录告警后放弃等待
+     */
+    private void awaitStepExit(AtomicBoolean started, CountDownLatch exited) throws InterruptedException {
+        if (started.compareAndSet(false, true)) {
+            return;
+        }
+        if (!exited.await(CANCEL_GRACE.toNanos(), TimeUnit.NANOSECONDS)) {
+            log.warn("Agent {} 第 {} 步取消后 {} 秒内没有退出", name, ccurrentStep, CANCEL_GRACE.toSeconds());
+        }
+    }
+
+    private static void sendQuietly(SseEmitter emitter, String message) {
+        try {
+            emitter.send(message);
+        } catch (Exception e) {
+            log.debug("SSE 推送失败: {}", e.getMessage());
+        }
+    }
+
     /**
      * 执行单个步骤
      */
     public abstract String step();
     
+    /**
+     * 流式运行时把增量内容立即推送给前端，非流式运行时忽略
+     */
+    protected void emit(String chunk) {
+        Consumer<String> sink = this.streamSink;
+        if (sink != null && chunk != null && !chunk.isEmpty()) {
+            sink.accept(chunk);
+        }
+    }
+
     /**
      * 获取要发送给前端的流式输出内容
      */
@@ -176,6 +370,11 @@ public abstract class BaseAgent {
      */
     public void interrupt() {
         this.interrupted = true;
+        // 立即取消进行中的步骤，不必等当前的模型调用或工具请求返回
+        Future<String> step = this.currentStep;
+        if (step != null) {
+            step.cancel(true);
+        }
         log.info("Agent {} interrupted", this.name);
     }
     
@@ -195,6 +394,7 @@ public abstract class BaseAgent {
         }
         this.interrupted = false;
         this.ccurrentStep = 0;
+        this.streamSink = null;
         if (this.messageList != null) {
             this.messageList.clear();
         }
@@ -1,14 +1,43 @@
 package com.zpark.learningagent.agent;
 
 import com.zpark.learningagent.advisor.MyLoggerAdvisor;
+import com.zpark.learningagent.agent.context.TokenBudgetContextPolicy;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Component
 public class LearningManus extends ToolCallAgent {  
 
+    // 设置系统提示词，定义AI助手的角色和能力
+    private static final String SYSTEM_PROMPT = """  
+            You are LearningManus, an AI learning assistant designed to help students plan their studies and find learning resources efficiently.
+            
+            IMPORTANT RULES:
+            1. If the user asks a simple question (like "who are you", "hello", "how are you"), answer briefly and IMMEDIATELY call the `terminate` tool.
+            2. Only use tools when the task requires external actions (search, file operations, resource recommendations, etc.).
+            3. For conversational queries without action requirements, respond and terminate.
+            4. Focus on learning-related tasks: study planning, resource recommendations, learning partner matching.
+            5. Never repeat the same response multiple times.
+            """;
+
+    // 设置下一步操作提示词，指导AI如何选择和使用工具
+    private static final String NEXT_STEP_PROMPT = """  
+            Based on learning needs, proactively select the most appropriate tool or combination of tools.  
+            For complex learning tasks, you can break down the problem and use different tools step by step to solve it.  
+            After using each tool, clearly explain the execution results and suggest the next steps.  
+            If you want to stop the interaction at any point, use the `terminate` tool/function call.  
+            """;
+
+    // 设置最大步骤数，防止无限循环
+    private static final int MAX_STEPS = 20;
+
+    // 同一步内最多并行执行的工具调用数
+    private static final int MAX_PARALLEL_TOOLS = 4;
 
     /**
      * 构造函数，初始化LearningManus学习助手实例
@@ -17,36 +46,54 @@ public class LearningManus extends ToolCallAgent {
      * @param dashscopeChatModel 通义千问聊天模型实例，用于处理对话请求
      */
     public LearningManus(ToolCallback[] allTools, ChatModel dashscopeChatModel) {
-        super(allTools);
-        this.setName("learningManus");
-        // 设置系统提示词，定义AI助手的角色和能力
-        String SYSTEM_PROMPT = """  
-                You are LearningManus, an AI learning assistant designed to help students plan their studies and find learning resources efficiently.
-                
-                IMPORTANT RULES:
-                1. If the user asks a simple question (like "who are you", "hello", "how are you"), answer briefly and IMMEDIATELY call the `terminate` tool.
-                2. Only use tools when the task requires external actions (search, file operations, resource recommendations, etc.).
-                3. For conversational queries without action requirements, respond and terminate.
-                4. Focus on learning-related tasks: study planning, resource recommendations, learning partner matching.
-                5. Never repeat the same response multiple times.
-                """;
-        this.setSystemPrompt(SYSTEM_PROMPT);
-        // 设置下一步操作提示词，指导AI如何选择和使用工具
-        String NEXT_STEP_PROMPT = """  
-                Based on learning needs, proactively select the most appropriate tool or combination of tools.  
-                For complex learning tasks, you can break down the problem and use different tools step by step to solve it.  
-                After using each tool, clearly explain the execution results and suggest the next steps.  
-                If you want to stop the interaction at any point, use the `terminate` tool/function call.  
-                """;
-        this.setNextStepPrompt(NEXT_STEP_PROMPT);
-        // 设置最大步骤数，防止无限循环
-        this.setMaxSteps(20);
+        this(createTemplate(allTools, dashscopeChatModel));
+    }
+
+    /**
+     * 基于共享模板创建实例，每次请求只分配会话状态
+     *
+     * @param template 由 createTemplate 构建的 LearningManus 模板
+     */
+    @Autowired
+    public LearningManus(AgentTemplate template) {
+        super(template);
+    }
+
+    /**
+     * 构建 LearningManus 模板：提示词、ChatClient、工具和模型选项只在这里创建一次
+     *
+     * @param allTools 可用的工具回调数组
+     * @param dashscopeChatModel 通义千问聊天模型实例
+     * @return 可在所有请求之间共享的模板
+     */
+    public static AgentTemplate createTemplate(ToolCallback[] allTools, ChatModel dashscopeChatModel) {
+        return createTemplate(allTools, dashscopeChatModel, Duration.ofMinutes(2), Duration.ofMinutes(5));
+    }
+
+    /**
+     * 构建带时间预算的 LearningManus 模板
+     *
+     * @param stepTimeout 单步时间预算，超过后取消该步并结束运行
+     * @param runTimeout 整次运行的时间预算
+     */
+    public static AgentTemplate createTemplate(ToolCallback[] allTools, ChatModel dashscopeChatModel,
+                                               Duration stepTimeout, Duration runTimeout) {
+        return createTemplate(allTools, dashscopeChatModel, stepTimeout, runTimeout, AgentMetrics.noop());
+    }
+
+    /**
+     * 构建带时间预算和指标的 LearningManus 模板
+     *
+     * @param metrics 所有实例共享的指标记录器
+     */
+    public static AgentTemplate createTemplate(ToolCallback[] allTools, ChatModel dashscopeChatModel,
+                                               Duration stepTimeout, Duration runTimeout, AgentMetrics metrics) {
         // 初始化客户端
         ChatClient chatClient = ChatClient.builder(dashscopeChatModel)
                 .defaultAdvisors(new MyLoggerAdvisor())
                 .build();
-        this.setChatClient(chatClient);
+        return new AgentTemplate("learningManus", SYSTEM_PROMPT, NEXT_STEP_PROMPT, MAX_STEPS,
+                chatClient, allTools, MAX_PARALLEL_TOOLS, TokenBudgetContextPolicy.defaults(),
+                stepTimeout, runTimeout, metrics);
     }
-
-
 }
@@ -0,0 +1,104 @@
+package com.zpark.learningagent.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 并行工具执行器
+ * 模型在一步里返回多个工具调用时，每个调用跑在一个虚拟线程上，用信号量限制同一步内的并发数，
+ * 结果按原始调用顺序组装成 ToolResponseMessage，一步的耗时接近最慢的那个工具而不是所有工具之和。
+ * 单个工具失败时把错误信息作为该工具的结果返回给模型，不影响其他工具。
+ */
+public class ParallelToolExecutor {
+    private static final Logger log = LoggerFactory.getLogger(ParallelToolExecutor.class);
+
+    private final Map<String, ToolCallback> toolsByName;
+
+    // 同一步内最多同时执行的工具调用数
+    private final int maxConcurrency;
+
+    public ParallelToolExecutor(ToolCallback[] tools, int maxConcurrency) {
+        this.toolsByName = new HashMap<>();
+        for (ToolCallback tool : tools) {
+            this.toolsByName.put(tool.getToolDefinition().name(), tool);
+        }
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * 执行一组工具调用，返回按调用顺序排列的工具响应
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls) {
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+        if (toolCalls.size() == 1) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(0);
+            responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), invoke(toolCall)));
+            return new ToolResponseMessage(responses);
+        }
+        Semaphore permits = new Semaphore(maxConcurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>(toolCalls.size());
+            for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return invoke(toolCall);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < toolCalls.size(); i++) {
+                AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+                responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(),
+                        await(futures.get(i), toolCall)));
+            }
+        }
+        return new ToolResponseMessage(responses);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    private String invoke(AssistantMessage.ToolCall toolCall) {
+        ToolCallback tool = toolsByName.get(toolCall.name());
+        if (tool == null) {
+            return "Error: 未找到工具 " + toolCall.name();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            String result = tool.call(toolCall.arguments());
+            log.info("工具 {} 执行完成，耗时 {} ms", toolCall.name(), System.currentTimeMillis() - start);
+            return result;
+        } catch (Exception e) {
+            log.warn("工具 {} 执行失败: {}", toolCall.name(), e.getMessage());
+            return "Error executing tool " + toolCall.name() + ": " + e.getMessage();
+        }
+    }
+
+    private static String await(Future<String> future, AssistantMessage.ToolCall toolCall) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return "Error: 工具 " + toolCall.name() + " 执行被中断";
+        } catch (ExecutionException e) {
+            return "Error executing tool " + toolCall.name() + ": " + e.getCause().getMessage();
+        }
+    }
+}
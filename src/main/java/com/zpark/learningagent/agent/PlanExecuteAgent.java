@@ -0,0 +1,359 @@
+package com.zpark.learningagent.agent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zpark.learningagent.agent.context.ContextPolicy;
+import com.zpark.learningagent.agent.model.AgentState;
+import com.zpark.learningagent.utils.TokenEstimator;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ResponseEntity;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * 先规划后执行的智能体
+ * 每一步只调用一次大模型：模型根据任务和已有结果，要么给出最终答案，要么给出一批带依赖关系的工具调用（DAG）；
+ * 没有依赖关系的节点在虚拟线程上并行执行，依赖的结果可以通过 {{节点id}} 引用。
+ * 已执行的调用按轮次记录，每次规划前经模板的上下文策略按 token 预算裁剪后再发给模型。
+ * 相比 ReAct 每个工具一轮模型调用，复杂任务的模型往返次数和总耗时都更少。
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class PlanExecuteAgent extends BaseAgent {
+    private static final Logger log = LoggerFactory.getLogger(PlanExecuteAgent.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String PLANNER_PROMPT = """
+            你是任务规划器。根据用户的任务和已经得到的工具结果，二选一输出：
+            1. 信息已经足够：在 answer 中给出完整的最终回答，tasks 为空数组；
+            2. 还需要信息：answer 为空，在 tasks 中给出本轮要执行的工具调用。
+            每个 task 包含 id（本轮唯一，如 t1）、tool（工具名）、arguments（工具参数对象）、dependsOn（依赖的 task id 列表）。
+            互不依赖的 task 会并行执行；参数中的字符串可以用 {{t1}} 引用本轮 t1 的结果。
+            不要重复已经执行过的调用，不要使用下面列表以外的工具。
+            可用工具：
+            %s
+            """;
+
+    // 注入到下游参数时，单个工具结果的 token 上限
+    private static final int MAX_RESULT_TOKENS = 1500;
+
+    // 结束任务由规划器自己决定，不暴露终止工具
+    private static final String TERMINATE_TOOL = "doTerminate";
+
+    private final Map<String, ToolCallback> toolsByName;
+
+    private final String toolCatalog;
+
+    // 同一轮最多并行执行的工具调用数，与模板的并行工具执行器一致
+    private final int maxParallelTools;
+
+    // 构建规划上下文时裁剪已执行调用的策略
+    private final ContextPolicy contextPolicy;
+
+    // 已执行的工具调用及结果：每轮一条带工具调用的助手消息和一条工具响应，按轮次顺序
+    private final List<Message> executedSteps = new ArrayList<>();
+
+    // 本步输出给前端的内容
+    private String latestOutput = "";
+
+    public PlanExecuteAgent(AgentTemplate template) {
+        super(template);
+        this.toolsByName = new LinkedHashMap<>();
+        for (ToolCallback tool : template.getAvailableTools()) {
+            String name = tool.getToolDefinition().name();
+            if (!TERMINATE_TOOL.equals(name)) {
+                this.toolsByName.put(name, tool);
+            }
+        }
+        this.toolCatalog = this.toolsByName.values().stream()
+                .map(tool -> "- " + tool.getToolDefinition().name() + ": " + tool.getToolDefinition().description()
+                        + " 参数: " + tool.getToolDefinition().inputSchema())
+                .collect(Collectors.joining("\n"));
+        this.maxParallelTools = template.getToolExecutor().getMaxConcurrency();
+        this.contextPolicy = template.getContextPolicy();
+    }
+
+    /**
+     * 一步 = 一次规划调用 + 执行本轮的任务图；规划器给出最终答案时结束
+     */
+    @Override
+    public String step() {
+        long planStart = System.nanoTime();
+        ResponseEntity<ChatResponse, Decision> planned = null;
+        try {
+            planned = getChatClient().prompt()
+                    .system(String.format(PLANNER_PROMPT, toolCatalog))
+                    .messages(buildContext())
+                    .call()
+                    .responseEntity(Decision.class);
+        } finally {
+            long elapsed = System.nanoTime() - planStart;
+            getMetrics().recordLlmCall(getName(), elapsed, planned != null ? planned.getResponse() : null);
+            getMetrics().recordPhase(getName(), "plan", elapsed);
+        }
+        Decision decision = planned.getEntity();
+        if (decision == null) {
+            setState(AgentState.FINISHED);
+            this.latestOutput = "规划失败：模型没有返回有效的计划";
+            return latestOutput;
+        }
+        List<PlanTask> tasks = decision.tasks() == null ? List.of() : decision.tasks();
+        if (tasks.isEmpty()) {
+            String answer = decision.answer() == null ? "" : decision.answer();
+            getMessageList().add(new AssistantMessage(answer));
+            setState(AgentState.FINISHED);
+            this.latestOutput = answer;
+            return "生成最终回答";
+        }
+        emit("[THINKING]" + tasks.stream().map(PlanTask::tool).collect(Collectors.joining(",")) + "[/THINKING]");
+        long executeStart = System.nanoTime();
+        List<String> results = executeGraph(tasks);
+        getMetrics().recordPhase(getName(), "execute", System.nanoTime() - executeStart);
+        List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>(tasks.size());
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            PlanTask task = tasks.get(i);
+            toolCalls.add(new AssistantMessage.ToolCall(task.id(), "function", task.tool(), toJson(task.arguments())));
+            responses.add(new ToolResponseMessage.ToolResponse(task.id(), task.tool(), results.get(i)));
+        }
+        executedSteps.add(new AssistantMessage("", Map.of(), toolCalls));
+        executedSteps.add(new ToolResponseMessage(responses));
+        this.latestOutput = "";
+        log.info("{} 本轮并行执行了 {} 个工具调用", getName(), tasks.size());
+        return "执行了 " + tasks.size() + " 个工具调用";
+    }
+
+    /**
+     * 按依赖关系执行任务图：每个节点在依赖全部完成后立即开始，互不依赖的节点并行执行
+     * 返回的结果与 tasks 一一对应；id 重复的节点只执行第一个，其余的和处于环中的节点不执行，结果为错误信息
+     */
+    List<String> executeGraph(List<PlanTask> tasks) {
+        Map<String, PlanTask> byId = new LinkedHashMap<>();
+        for (PlanTask task : tasks) {
+            byId.putIfAbsent(task.id(), task);
+        }
+        List<PlanTask> ordered = topologicalOrder(byId);
+        List<String> results = new ArrayList<>(tasks.size());
+        Map<String, CompletableFuture<String>> futures = new HashMap<>();
+        Semaphore permits = new Semaphore(maxParallelTools);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (PlanTask task : ordered) {
+                // 创建时就确定依赖的 future：拓扑序保证依赖已经创建，忽略的依赖（自身、不存在的 id）不在其中
+                Map<String, CompletableFuture<String>> dependencies = new HashMap<>();
+                if (task.dependsOn() != null) {
+                    for (String dependency : task.dependsOn()) {
+                        CompletableFuture<String> dependencyFuture = futures.get(dependency);
+                        if (dependencyFuture != null && !dependency.equals(task.id())) {
+                            dependencies.put(dependency, dependencyFuture);
+                        }
+                    }
+                }
+                CompletableFuture<String> future = CompletableFuture
+                        .allOf(dependencies.values().toArray(CompletableFuture[]::new))
+                        .thenApplyAsync(ignored -> {
+                            Map<String, String> upstream = new HashMap<>();
+                            dependencies.forEach((dependency, dependencyFuture) ->
+                                    upstream.put(dependency, dependencyFuture.join()));
+                            return runWithPermit(task, upstream, permits);
+                        }, executor);
+                futures.put(task.id(), future);
+            }
+            for (PlanTask task : tasks) {
+                if (byId.get(task.id()) != task) {
+                    results.add("Error: 任务 id " + task.id() + " 重复，未执行");
+                    continue;
+                }
+                CompletableFuture<String> future = futures.get(task.id());
+                if (future == null) {
+                    results.add("Error: 任务依赖存在环，未执行");
+                    continue;
+                }
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    results.add("Error executing tool " + task.tool() + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    // 保留中断标志，离开 try 块时执行器关闭会中断所有仍在运行的工具
+                    Thread.currentThread().interrupt();
+                    futures.values().forEach(pending -> pending.cancel(true));
+                    throw new CancellationException("任务图执行被中断");
+                }
+            }
+        }
+        return results;
+    }
+
+    private String runWithPermit(PlanTask task, Map<String, String> upstream, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: 工具 " + task.tool() + " 执行被中断";
+        }
+        try {
+            ToolCallback tool = toolsByName.get(task.tool());
+            if (tool == null) {
+                return "Error: 未找到工具 " + task.tool();
+            }
+            return tool.call(toJson(resolveArguments(task.arguments(), upstream)));
+        } catch (Exception e) {
+            log.warn("工具 {} 执行失败: {}", task.tool(), e.getMessage());
+            return "Error executing tool " + task.tool() + ": " + e.getMessage();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Kahn 拓扑排序；不存在的依赖和对自身的依赖忽略，处于环中（或依赖环中节点）的节点不返回
+     */
+    static List<PlanTask> topologicalOrder(Map<String, PlanTask> byId) {
+        // 按规划器给出的顺序启动没有依赖的节点
+        Map<String, Integer> indegree = new LinkedHashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (PlanTask task : byId.values()) {
+            indegree.putIfAbsent(task.id(), 0);
+            if (task.dependsOn() == null) {
+                continue;
+            }
+            for (String dependency : task.dependsOn()) {
+                if (byId.containsKey(dependency) && !dependency.equals(task.id())) {
+                    indegree.merge(task.id(), 1, Integer::sum);
+                    dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(task.id());
+                }
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        indegree.forEach((id, degree) -> {
+            if (degree == 0) {
+                ready.add(id);
+            }
+        });
+        List<PlanTask> ordered = new ArrayList<>(byId.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            ordered.add(byId.get(id));
+            for (String dependent : dependents.getOrDefault(id, List.of())) {
+                if (indegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 把参数中的 {{id}} 替换为对应依赖的结果
+     */
+    static Map<String, Object> resolveArguments(Map<String, Object> arguments, Map<String, String> upstream) {
+        if (arguments == null) {
+            return Map.of();
+        }
+        Map<String, Object> resolved = new LinkedHashMap<>(arguments);
+        for (Map.Entry<String, Object> entry : resolved.entrySet()) {
+            if (entry.getValue() instanceof String value && value.contains("{{")) {
+                for (Map.Entry<String, String> result : upstream.entrySet()) {
+                    value = value.replace("{{" + result.getKey() + "}}",
+                            TokenEstimator.truncate(result.getValue(), MAX_RESULT_TOKENS));
+                }
+                entry.setValue(value);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * 规划上下文：用户的原始任务 + 已执行的工具调用及其结果
+     * 已执行的调用先经上下文策略裁剪：被相同调用取代的轮次丢弃，较早轮次的结果用更小的预算截断，
+     * 超出总预算时从最早的轮次开始丢弃；保留下来的轮次整理成一条文字说明发给规划器
+     */
+    private List<Message> buildContext() {
+        List<Message> history = new ArrayList<>(getMessageList());
+        history.addAll(executedSteps);
+        List<Message> view = contextPolicy.apply(history, null);
+        List<Message> context = new ArrayList<>();
+        StringBuilder executed = new StringBuilder();
+        int keptRounds = 0;
+        for (int i = 0; i < view.size(); i++) {
+            Message message = view.get(i);
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()
+                    && i + 1 < view.size() && view.get(i + 1) instanceof ToolResponseMessage toolResponseMessage) {
+                List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+                List<ToolResponseMessage.ToolResponse> responses = toolResponseMessage.getResponses();
+                for (int j = 0; j < toolCalls.size() && j < responses.size(); j++) {
+                    executed.append("- ").append(toolCalls.get(j).name()).append(' ')
+                            .append(toolCalls.get(j).arguments()).append(" => ")
+                            .append(responses.get(j).responseData()).append('\n');
+                }
+                keptRounds++;
+                i++;
+            } else {
+                context.add(message);
+            }
+        }
+        if (!executedSteps.isEmpty()) {
+            StringBuilder text = new StringBuilder("已执行的工具调用及结果：\n");
+            int omittedRounds = executedSteps.size() / 2 - keptRounds;
+            if (omittedRounds > 0) {
+                text.append("（较早的 ").append(omittedRounds).append(" 轮调用超出上下文预算或已被重复调用取代，已省略）\n");
+            }
+            context.add(new UserMessage(text.append(executed).toString()));
+        }
+        return context;
+    }
+
+    private static String toJson(Object value) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(value == null ? Map.of() : value);
+        } catch (Exception e) {
+            return "{}";
+        }
+    }
+
+    @Override
+    protected String getStreamOutput() {
+        String output = latestOutput;
+        latestOutput = "";
+        return output;
+    }
+
+    @Override
+    protected void cleanup() {
+        super.cleanup();
+        executedSteps.clear();
+    }
+
+    /**
+     * 规划器的输出：最终回答，或者本轮要执行的任务图
+     */
+    public record Decision(String answer, List<PlanTask> tasks) {
+    }
+
+    /**
+     * 任务图中的一个节点
+     */
+    public record PlanTask(String id, String tool, Map<String, Object> arguments, List<String> dependsOn) {
+    }
+}
@@ -1,7 +1,11 @@
 package com.zpark.learningagent.agent;
 
+import com.zpark.learningagent.agent.model.AgentState;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.UserMessage;
 
 /**
  * ReAct (Reasoning and Acting) 模式的代理抽象类  
@@ -10,6 +14,23 @@ import lombok.EqualsAndHashCode;
 @EqualsAndHashCode(callSuper = true)
 @Data
 public abstract class ReActAgent extends BaseAgent {
+   private static final Logger log = LoggerFactory.getLogger(ReActAgent.class);
+
+   private static final String CORRECTIVE_PROMPT = """
+           检测到%s。不要再重复之前的工具调用或回答：换一种工具或参数继续推进任务；
+           如果任务已经完成或无法继续，直接给出最终回答并调用终止工具结束。
+           """;
+
+   // 检测重复的工具调用、相似的回复和连续无进展的步骤
+   private final StagnationDetector stagnationDetector = StagnationDetector.defaults();
+
+   protected ReActAgent() {
+   }
+
+   protected ReActAgent(AgentTemplate template) {
+       super(template);
+   }
+
     /**
      * 处理当前的状态并决定下一步行动
      * @return
@@ -21,22 +42,105 @@ public abstract class ReActAgent extends BaseAgent {
      */
    public abstract String act();
 
+    /**
+     * 本步决定的工具调用签名（名称和参数），没有工具调用时返回 null，用于发现重复调用
+     */
+   protected String decisionSignature() {
+       return null;
+   }
+
+    /**
+     * 本步模型的回复文本，用于发现重复的回答
+     */
+   protected String decisionText() {
+       return null;
+   }
+
+    /**
+     * 本步的行动是否取得了进展（例如至少有一个工具调用成功）
+     */
+   protected boolean actionProgressed() {
+       return true;
+   }
+
+    /**
+     * 本步的工具调用是否全部成功；只有成功过的调用再次出现才算重复，失败的调用允许原样重试
+     */
+   protected boolean actionSucceeded() {
+       return actionProgressed();
+   }
+
    @Override
     public  String step() {
        try {
            // 思考
+           long thinkStart = System.nanoTime();
            boolean thinkResult = think();
+           getMetrics().recordPhase(getName(), "think", System.nanoTime() - thinkStart);
+           StagnationDetector.Verdict verdict = stagnationDetector.onDecision(decisionSignature(), decisionText());
+           if (verdict.action() == StagnationDetector.Action.STOP) {
+               return stopForStagnation(verdict);
+           }
            if (!thinkResult) {
                // 思考失败
+               StagnationDetector.Verdict outcome = stagnationDetector.onOutcome(false);
+               if (outcome.action() == StagnationDetector.Action.STOP) {
+                   return stopForStagnation(outcome);
+               }
+               if (verdict.action() == StagnationDetector.Action.CORRECT) {
+                   correct(verdict);
+               } else if (outcome.action() == StagnationDetector.Action.CORRECT) {
+                   correct(outcome);
+               }
                return "Thinking failed";
            }
+           if (verdict.action() == StagnationDetector.Action.CORRECT) {
+               correct(verdict);
+               if (verdict.repeatedCall()) {
+                   // 重复之前已经成功的工具调用不再执行，改为提示模型换一种做法
+                   return "跳过重复的工具调用";
+               }
+               // 只是回复文本相似，新的工具调用照常执行
+           }
            // 执行
+           long actStart = System.nanoTime();
            String actResult = act();
-           return actResult;
+           getMetrics().recordPhase(getName(), "act", System.nanoTime() - actStart);
+           String stopped = applyOutcome(stagnationDetector.onOutcome(actionProgressed(), actionSucceeded()));
+           return stopped != null ? stopped : actResult;
        } catch (Exception e) {
            //记录异常
            e.printStackTrace();
            return "Error running agent: " + e.getMessage();
        }
    }
+
+   private String applyOutcome(StagnationDetector.Verdict verdict) {
+       if (verdict.action() == StagnationDetector.Action.STOP) {
+           return stopForStagnation(verdict);
+       }
+       if (verdict.action() == StagnationDetector.Action.CORRECT) {
+           correct(verdict);
+       }
+       return null;
+   }
+
+   private void correct(StagnationDetector.Verdict verdict) {
+       log.info("{} {}，追加纠正提示", getName(), verdict.reason());
+       getMessageList().add(new UserMessage(String.format(CORRECTIVE_PROMPT, verdict.reason())));
+   }
+
+   private String stopForStagnation(StagnationDetector.Verdict verdict) {
+       log.warn("{} {}，提前结束运行", getName(), verdict.reason());
+       setState(AgentState.FINISHED);
+       String notice = "执行结束: 检测到" + verdict.reason();
+       emit(notice);
+       return notice;
+   }
+
+   @Override
+   protected void cleanup() {
+       super.cleanup();
+       stagnationDetector.reset();
+   }
 }
@@ -0,0 +1,192 @@
+package com.zpark.learningagent.agent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 循环和停滞检测
+ * 每一步记录模型的决定（工具调用签名和回复文本）以及执行结果，发现以下情况时要求纠正或强制结束：
+ * 1. 最近几步中出现过完全相同且执行成功的工具调用（名称和参数都相同）；之前失败的调用允许原样重试，
+ *    反复失败由第 3 条兜底；
+ * 2. 回复文本与最近几步的回复高度相似（字符二元组的 Jaccard 相似度超过阈值）；本步带有新的工具调用时
+ *    只给出纠正提示、不计入重复次数，避免“让我继续搜索”之类的固定开场白拦下正常的调用；
+ * 3. 连续多步没有进展（工具全部失败或思考失败）。
+ * 第一次发现重复时给出纠正提示，纠正后仍然重复或连续无进展达到上限时强制结束，避免一直空转到最大步数。
+ */
+public final class StagnationDetector {
+
+    // 短于这个长度的回复不参与相似度比较，避免“好的”之类的短句误判
+    private static final int MIN_TEXT_LENGTH = 10;
+
+    public enum Action {
+        CONTINUE,
+        CORRECT,
+        STOP
+    }
+
+    /**
+     * @param repeatedCall 是否因为重复之前成功过的工具调用而判定，只有这种情况才应跳过本步的执行
+     */
+    public record Verdict(Action action, String reason, boolean repeatedCall) {
+        private static final Verdict CONTINUE = new Verdict(Action.CONTINUE, null, false);
+    }
+
+    // 参与比较的最近步数
+    private final int window;
+
+    private final double similarityThreshold;
+
+    // 重复次数达到该值时强制结束，未达到时给出纠正提示
+    private final int maxRepeats;
+
+    // 连续无进展步数达到该值时强制结束，差一步时给出纠正提示
+    private final int maxNoProgressSteps;
+
+    // 最近执行成功的工具调用签名
+    private final Deque<String> recentSignatures = new ArrayDeque<>();
+
+    // 本步决定、还没有执行结果的工具调用签名
+    private String pendingSignature;
+
+    private final Deque<String> recentTexts = new ArrayDeque<>();
+    private int repeats;
+    private int noProgressSteps;
+
+    public StagnationDetector(int window, double similarityThreshold, int maxRepeats, int maxNoProgressSteps) {
+        this.window = Math.max(1, window);
+        this.similarityThreshold = similarityThreshold;
+        this.maxRepeats = Math.max(1, maxRepeats);
+        this.maxNoProgressSteps = Math.max(2, maxNoProgressSteps);
+    }
+
+    /**
+     * 默认配置：比较最近 6 步，相似度阈值 0.9，纠正后再重复一次即结束，连续 3 步无进展即结束
+     */
+    public static StagnationDetector defaults() {
+        return new StagnationDetector(6, 0.9, 2, 3);
+    }
+
+    /**
+     * 记录模型本步的决定；工具调用签名要等 onOutcome 报告执行成功后才计入历史
+     *
+     * @param signature 工具调用签名，没有工具调用时为 null
+     * @param text      模型的回复文本，可以为 null
+     */
+    public synchronized Verdict onDecision(String signature, String text) {
+        boolean repeatedCall = signature != null && recentSignatures.contains(signature);
+        String normalized = text == null ? "" : text.replaceAll("\\s+", "");
+        boolean similarText = false;
+        if (!repeatedCall && normalized.length() >= MIN_TEXT_LENGTH) {
+            for (String previous : recentTexts) {
+                if (similarity(previous, normalized) >= similarityThreshold) {
+                    similarText = true;
+                    break;
+                }
+            }
+        }
+        pendingSignature = signature;
+        if (normalized.length() >= MIN_TEXT_LENGTH) {
+            remember(recentTexts, normalized);
+        }
+        if (repeatedCall) {
+            repeats++;
+            return new Verdict(repeats >= maxRepeats ? Action.STOP : Action.CORRECT,
+                    "重复的工具调用 " + abbreviate(signature), true);
+        }
+        if (similarText && signature == null) {
+            repeats++;
+            return new Verdict(repeats >= maxRepeats ? Action.STOP : Action.CORRECT, "与之前几乎相同的回复", false);
+        }
+        repeats = 0;
+        if (similarText) {
+            // 回复相似但工具调用是新的：照常执行，只提醒模型不要重复
+            return new Verdict(Action.CORRECT, "与之前几乎相同的回复", false);
+        }
+        return Verdict.CONTINUE;
+    }
+
+    /**
+     * 记录本步是否取得了进展，进展即视为本步的工具调用全部成功
+     */
+    public synchronized Verdict onOutcome(boolean progressed) {
+        return onOutcome(progressed, progressed);
+    }
+
+    /**
+     * 记录本步的执行结果
+     *
+     * @param progressed 是否取得了进展（例如至少有一个工具调用成功）
+     * @param succeeded  本步的工具调用是否全部成功，只有成功的调用再次出现时才算重复
+     */
+    public synchronized Verdict onOutcome(boolean progressed, boolean succeeded) {
+        if (succeeded) {
+            remember(recentSignatures, pendingSignature);
+        }
+        pendingSignature = null;
+        if (progressed) {
+            noProgressSteps = 0;
+            return Verdict.CONTINUE;
+        }
+        noProgressSteps++;
+        if (noProgressSteps >= maxNoProgressSteps) {
+            return new Verdict(Action.STOP, "连续 " + noProgressSteps + " 步没有进展", false);
+        }
+        if (noProgressSteps == maxNoProgressSteps - 1) {
+            return new Verdict(Action.CORRECT, "连续 " + noProgressSteps + " 步没有进展", false);
+        }
+        return Verdict.CONTINUE;
+    }
+
+    public synchronized void reset() {
+        recentSignatures.clear();
+        recentTexts.clear();
+        pendingSignature = null;
+        repeats = 0;
+        noProgressSteps = 0;
+    }
+
+    private void remember(Deque<String> recent, String value) {
+        if (value == null) {
+            return;
+        }
+        recent.addLast(value);
+        while (recent.size() > window) {
+            recent.removeFirst();
+        }
+    }
+
+    /**
+     * 字符二元组集合的 Jaccard 相似度，对中文和英文都适用
+     */
+    static double similarity(String a, String b) {
+        if (a.equals(b)) {
+            return 1.0;
+        }
+        Set<Integer> left = bigrams(a);
+        Set<Integer> right = bigrams(b);
+        if (left.isEmpty() || right.isEmpty()) {
+            return 0.0;
+        }
+        int intersection = 0;
+        for (Integer bigram : left) {
+            if (right.contains(bigram)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (left.size() + right.size() - intersection);
+    }
+
+    private static Set<Integer> bigrams(String text) {
+        Set<Integer> bigrams = new HashSet<>();
+        for (int i = 0; i + 1 < text.length(); i++) {
+            bigrams.add((text.charAt(i) << 16) | text.charAt(i + 1));
+        }
+        return bigrams;
+    }
+
+    private static String abbreviate(String signature) {
+        return signature.length() <= 80 ? signature : signature.substring(0, 80) + "...";
+    }
+}
@@ -1,24 +1,29 @@
 package com.zpark.learningagent.agent;
 
-import cn.hutool.core.collection.CollUtil;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.zpark.learningagent.agent.context.ContextPolicy;
+import com.zpark.learningagent.agent.context.TokenBudgetContextPolicy;
 import com.zpark.learningagent.agent.model.AgentState;
+import com.zpark.learningagent.tools.ToolResults;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
-import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.model.tool.ToolCallingManager;
-import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -41,19 +46,47 @@ public class ToolCallAgent extends ReActAgent {
     // 保存思考过程信息（用于流式输出）
     private String thinkingProcess = "";
 
-    // 工具调用管理器
-    private final ToolCallingManager toolCallingManager;
+    // 上一次行动中是否至少有一个工具调用成功
+    private boolean lastActProgressed = true;
+
+    // 上一次行动中的工具调用是否全部成功
+    private boolean lastActSucceeded = true;
+
+    // 同一步内最多并行执行的工具调用数
+    private static final int DEFAULT_MAX_PARALLEL_TOOLS = 4;
+
+    // 并行工具执行器
+    private final ParallelToolExecutor toolExecutor;
 
     // 禁用Spring AI内置工具调用的配置项
     private final ChatOptions chatOptions;
 
+    // 构建每次模型调用上下文的策略
+    private final ContextPolicy contextPolicy;
+
     public ToolCallAgent(ToolCallback[] availableTools) {
+        this(availableTools, DEFAULT_MAX_PARALLEL_TOOLS);
+    }
+
+    public ToolCallAgent(ToolCallback[] availableTools, int maxParallelTools) {
         super();
         this.availableTools = availableTools;
-        this.toolCallingManager = ToolCallingManager.builder().build();
+        this.toolExecutor = new ParallelToolExecutor(availableTools, maxParallelTools);
         this.chatOptions = DashScopeChatOptions.builder()
                 .withProxyToolCalls(true)
                 .build();
+        this.contextPolicy = TokenBudgetContextPolicy.defaults();
+    }
+
+    /**
+     * 基于模板创建，工具列表、模型选项和工具执行器都直接复用模板中的实例
+     */
+    public ToolCallAgent(AgentTemplate template) {
+        super(template);
+        this.availableTools = template.getAvailableTools();
+        this.toolExecutor = template.getToolExecutor();
+        this.chatOptions = template.getChatOptions();
+        this.contextPolicy = template.getContextPolicy();
     }
 
     /**
@@ -61,21 +94,24 @@ public class ToolCallAgent extends ReActAgent {
      */
     @Override
     public boolean think() {
-        // 处理下一步提示词
-        if (getNextStepPrompt() != null && !getNextStepPrompt().isEmpty()) {
-            UserMessage userMessage = new UserMessage(getNextStepPrompt());
-            getMessageList().add(userMessage);
-        }
-
-        List<Message> messageList = getMessageList();
+        // 由上下文策略构建本次调用的消息：下一步提示词只出现在末尾一次，过长的工具输出被截断，
+        // 被取代的步骤和超出预算的旧步骤不发送，完整历史仍保留在 messageList 中
+        List<Message> messageList = contextPolicy.apply(getMessageList(), getNextStepPrompt());
         Prompt prompt = new Prompt(messageList, chatOptions);
 
         try {
-            ChatResponse chatResponse = getChatClient().prompt(prompt)
+            ChatClient.ChatClientRequestSpec request = getChatClient().prompt(prompt)
                     .system(getSystemPrompt())
-                    .tools(availableTools)
-                    .call()
-                    .chatResponse();
+                    .tools(availableTools);
+            // 流式运行时边生成边推送文本，工具调用在流结束后组装
+            boolean streaming = getStreamSink() != null;
+            long callStart = System.nanoTime();
+            ChatResponse chatResponse = null;
+            try {
+                chatResponse = streaming ? streamChatResponse(request) : request.call().chatResponse();
+            } finally {
+                getMetrics().recordLlmCall(getName(), System.nanoTime() - callStart, chatResponse);
+            }
 
             this.toolCallChatResponse = chatResponse;
 
@@ -83,8 +119,8 @@ public class ToolCallAgent extends ReActAgent {
             String result = assistantMessage.getText();
             List<AssistantMessage.ToolCall> toolCallList = assistantMessage.getToolCalls();
             
-            // 保存AI的文本回复
-            this.latestAiResponse = (result != null) ? result : "";
+            // 保存AI的文本回复，流式运行时文本已经推送过，不再重复输出
+            this.latestAiResponse = (result != null && !streaming) ? result : "";
             
             // 构建思考过程信息（JSON格式，前端解析）
             if (!toolCallList.isEmpty()) {
@@ -110,13 +146,16 @@ public class ToolCallAgent extends ReActAgent {
                     .collect(Collectors.joining("\n"));
             log.info(toolCallInfo);
 
-            if (toolCallList.isEmpty()) {
-                getMessageList().add(assistantMessage);
+            if (toolCallList.isEmpty() || isInterrupted()) {
+                // 被中断时流可能在中途截断，不执行不完整的工具调用
+                getMessageList().add(toolCallList.isEmpty() ? assistantMessage
+                        : new AssistantMessage(result != null ? result : ""));
                 return false;
             } else {
                 return true;
             }
         } catch (Exception e) {
+            this.toolCallChatResponse = null;
             log.error(getName() + " 的思考过程遇到了问题: " + e.getMessage());
             this.latestAiResponse = "处理时遇到错误: " + e.getMessage();
             getMessageList().add(new AssistantMessage("处理时遇到错误: " + e.getMessage()));
@@ -124,8 +163,108 @@ public class ToolCallAgent extends ReActAgent {
         }
     }
 
+    /**
+     * 以流式方式调用模型：文本增量到达即推送给前端，同时累积完整文本和工具调用，
+     * 流结束后组装成与同步调用等价的 ChatResponse，供 act 使用
+     */
+    private ChatResponse streamChatResponse(ChatClient.ChatClientRequestSpec request) {
+        return collectStream(request.stream().chatResponse());
+    }
+
+    /**
+     * 消费模型返回的流：推送文本增量，合并工具调用片段，被中断时提前停止
+     */
+    ChatResponse collectStream(Flux<ChatResponse> stream) {
+        StringBuilder text = new StringBuilder();
+        List<ToolCallBuilder> toolCalls = new ArrayList<>();
+        ChatResponseMetadata metadata = null;
+        Iterable<ChatResponse> chunks = stream
+                .takeWhile(chunk -> !isInterrupted())
+                .toIterable();
+        for (ChatResponse chunk : chunks) {
+            // takeWhile 只在块到达时检查，已经缓冲的块在这里再判断一次
+            if (isInterrupted()) {
+                break;
+            }
+            if (chunk.getMetadata() != null) {
+                metadata = chunk.getMetadata();
+            }
+            if (chunk.getResult() == null || chunk.getResult().getOutput() == null) {
+                continue;
+            }
+            AssistantMessage output = chunk.getResult().getOutput();
+            String delta = output.getText();
+            if (delta != null && !delta.isEmpty()) {
+                text.append(delta);
+                emit(delta);
+            }
+            if (output.getToolCalls() != null) {
+                for (AssistantMessage.ToolCall toolCall : output.getToolCalls()) {
+                    mergeToolCall(toolCalls, toolCall);
+                }
+            }
+        }
+        AssistantMessage assistantMessage = new AssistantMessage(text.toString(), Map.of(),
+                toolCalls.stream().map(ToolCallBuilder::build).toList());
+        return new ChatResponse(List.of(new Generation(assistantMessage)),
+                metadata != null ? metadata : new ChatResponseMetadata());
+    }
+
+    /**
+     * 合并流式返回的工具调用片段：同一 id（或没有 id 的后续片段）的参数依次拼接，
+     * 如果模型在最后一个块里给出了完整的工具调用，则直接覆盖之前的片段
+     */
+    private static void mergeToolCall(List<ToolCallBuilder> toolCalls, AssistantMessage.ToolCall fragment) {
+        String id = fragment.id();
+        ToolCallBuilder target = null;
+        if (id != null && !id.isEmpty()) {
+            for (ToolCallBuilder builder : toolCalls) {
+                if (id.equals(builder.id)) {
+                    target = builder;
+                    break;
+                }
+            }
+        } else if (!toolCalls.isEmpty()) {
+            target = toolCalls.get(toolCalls.size() - 1);
+        }
+        if (target == null) {
+            target = new ToolCallBuilder();
+            target.id = id;
+            toolCalls.add(target);
+        }
+        if (fragment.type() != null && !fragment.type().isEmpty()) {
+            target.type = fragment.type();
+        }
+        if (fragment.name() != null && !fragment.name().isEmpty()) {
+            target.name = fragment.name();
+        }
+        String arguments = fragment.arguments();
+        if (arguments != null && !arguments.isEmpty()) {
+            String current = target.arguments.toString();
+            if (!current.isEmpty() && arguments.startsWith(current)) {
+                target.arguments.setLength(0);
+            }
+            target.arguments.append(arguments);
+        }
+    }
+
+    /**
+     * 流式组装中的工具调用
+     */
+    private static final class ToolCallBuilder {
+        private String id;
+        private String type = "function";
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+
+        private AssistantMessage.ToolCall build() {
+            return new AssistantMessage.ToolCall(id, type, name, arguments.toString());
+        }
+    }
+
     /**
      * 执行工具调用并处理结果
+     * 同一步的多个工具调用并行执行，响应按调用顺序追加到消息列表
      */
     @Override
     public String act() {
@@ -133,17 +272,21 @@ public class ToolCallAgent extends ReActAgent {
             return "没有工具调用";
         }
 
-        Prompt prompt = new Prompt(getMessageList(), chatOptions);
-        ToolExecutionResult toolExecutionResult = toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
+        AssistantMessage assistantMessage = toolCallChatResponse.getResult().getOutput();
+        ToolResponseMessage toolResponseMessage = toolExecutor.execute(assistantMessage.getToolCalls());
 
-        setMessageList(toolExecutionResult.conversationHistory());
-
-        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        getMessageList().add(assistantMessage);
+        getMessageList().add(toolResponseMessage);
         
         String results = toolResponseMessage.getResponses().stream()
                 .map(response -> "工具 " + response.name() + " 执行完成")
                 .collect(Collectors.joining("\n"));
         
+        this.lastActProgressed = toolResponseMessage.getResponses().stream()
+                .anyMatch(response -> !ToolResults.isError(response.responseData()));
+        this.lastActSucceeded = toolResponseMessage.getResponses().stream()
+                .noneMatch(response -> ToolResults.isError(response.responseData()));
+
         boolean terminateToolCalled = toolResponseMessage.getResponses().stream()
                 .anyMatch(response -> "doTerminate".equals(response.name()));
         
@@ -154,7 +297,39 @@ public class ToolCallAgent extends ReActAgent {
         log.info(results);
         return results;
     }
-    
+
+    /**
+     * 工具调用签名：按名称和去掉空白的参数排序拼接，同一组调用顺序不同也视为相同
+     */
+    @Override
+    protected String decisionSignature() {
+        if (toolCallChatResponse == null || !toolCallChatResponse.hasToolCalls()) {
+            return null;
+        }
+        return toolCallChatResponse.getResult().getOutput().getToolCalls().stream()
+                .map(toolCall -> toolCall.name() + "(" + String.valueOf(toolCall.arguments()).replaceAll("\\s+", "") + ")")
+                .sorted()
+                .collect(Collectors.joining(";"));
+    }
+
+    @Override
+    protected String decisionText() {
+        if (toolCallChatResponse == null) {
+            return null;
+        }
+        return toolCallChatResponse.getResult().getOutput().getText();
+    }
+
+    @Override
+    protected boolean actionProgressed() {
+        return lastActProgressed;
+    }
+
+    @Override
+    protected boolean actionSucceeded() {
+        return lastActSucceeded;
+    }
+
     /**
      * 获取最新的AI回复内容（用于流式输出）
      */
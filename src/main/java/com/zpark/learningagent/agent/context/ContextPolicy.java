@@ -0,0 +1,21 @@
+package com.zpark.learningagent.agent.context;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 上下文策略：决定每次调用大模型时实际发送哪些消息
+ * 智能体的完整消息列表保持不变，策略只构建本次调用使用的视图。
+ */
+public interface ContextPolicy {
+
+    /**
+     * 根据完整的历史消息和下一步提示词构建本次调用的消息列表
+     *
+     * @param history        智能体的完整消息列表（只读）
+     * @param nextStepPrompt 下一步提示词，可以为空
+     * @return 发送给模型的消息列表
+     */
+    List<Message> apply(List<Message> history, String nextStepPrompt);
+}
@@ -0,0 +1,215 @@
+package com.zpark.learningagent.agent.context;
+
+import com.zpark.learningagent.utils.TokenEstimator;
+import org.jsoup.Jsoup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 按 token 预算构建上下文的默认策略
+ * 1. 下一步提示词只在末尾出现一次，历史中重复的提示词全部去掉；
+ * 2. 工具输出超过预算时截断，HTML 先提取正文再截断，较早步骤的工具输出使用更小的预算；
+ * 3. 后面用相同参数重复调用过的工具步骤视为已被取代，直接丢弃；
+ * 4. 仍然超过总预算时，从最早的步骤开始丢弃，始终保留用户的原始任务和最近一步。
+ * 工具调用和对应的工具响应作为一个整体保留或丢弃，保证发送给模型的消息合法。
+ */
+public class TokenBudgetContextPolicy implements ContextPolicy {
+
+    private static final String TRUNCATED_NOTICE = "\n...（内容过长已截断，原始约 %d 个 token）";
+
+    // 发送给模型的消息总 token 上限（不含系统提示词）
+    private final int maxPromptTokens;
+
+    // 最近一步每个工具输出的 token 上限
+    private final int maxToolOutputTokens;
+
+    // 较早步骤每个工具输出的 token 上限
+    private final int maxOlderToolOutputTokens;
+
+    public TokenBudgetContextPolicy(int maxPromptTokens, int maxToolOutputTokens, int maxOlderToolOutputTokens) {
+        this.maxPromptTokens = Math.max(500, maxPromptTokens);
+        this.maxToolOutputTokens = Math.max(50, maxToolOutputTokens);
+        this.maxOlderToolOutputTokens = Math.max(20, Math.min(maxOlderToolOutputTokens, this.maxToolOutputTokens));
+    }
+
+    /**
+     * 默认预算：总计 8000 token，最近一步的工具输出 2000，较早的 400
+     */
+    public static TokenBudgetContextPolicy defaults() {
+        return new TokenBudgetContextPolicy(8000, 2000, 400);
+    }
+
+    @Override
+    public List<Message> apply(List<Message> history, String nextStepPrompt) {
+        boolean hasStepPrompt = nextStepPrompt != null && !nextStepPrompt.isEmpty();
+        List<Unit> units = group(history, hasStepPrompt ? nextStepPrompt : null);
+        dropSupersededSteps(units);
+
+        int lastToolStep = -1;
+        for (int i = units.size() - 1; i >= 0; i--) {
+            if (units.get(i).isToolStep()) {
+                lastToolStep = i;
+                break;
+            }
+        }
+        int total = hasStepPrompt ? TokenEstimator.estimate(nextStepPrompt) : 0;
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (unit.dropped) {
+                continue;
+            }
+            if (unit.isToolStep()) {
+                unit.truncateToolOutputs(i == lastToolStep ? maxToolOutputTokens : maxOlderToolOutputTokens);
+            }
+            total += unit.tokens();
+        }
+
+        // 超出预算时从最早的非固定单元开始丢弃，保留原始任务和最后一个单元
+        for (int i = 0; i < units.size() - 1 && total > maxPromptTokens; i++) {
+            Unit unit = units.get(i);
+            if (!unit.pinned && !unit.dropped) {
+                unit.dropped = true;
+                total -= unit.tokens();
+            }
+        }
+
+        List<Message> messages = new ArrayList<>(history.size() + 1);
+        for (Unit unit : units) {
+            if (!unit.dropped) {
+                messages.addAll(unit.messages);
+            }
+        }
+        if (hasStepPrompt) {
+            messages.add(new UserMessage(nextStepPrompt));
+        }
+        return messages;
+    }
+
+    /**
+     * 把消息分成单元：带工具调用的助手消息和紧随其后的工具响应为一个单元，其他消息各自一个单元
+     */
+    private static List<Unit> group(List<Message> history, String nextStepPrompt) {
+        List<Unit> units = new ArrayList<>();
+        boolean taskPinned = false;
+        for (int i = 0; i < history.size(); i++) {
+            Message message = history.get(i);
+            if (message instanceof UserMessage && nextStepPrompt != null && nextStepPrompt.equals(message.getText())) {
+                continue;
+            }
+            Unit unit = new Unit();
+            unit.messages.add(message);
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()
+                    && i + 1 < history.size() && history.get(i + 1) instanceof ToolResponseMessage) {
+                unit.messages.add(history.get(++i));
+            }
+            if (!taskPinned && message instanceof UserMessage) {
+                unit.pinned = true;
+                taskPinned = true;
+            }
+            units.add(unit);
+        }
+        return units;
+    }
+
+    /**
+     * 同样的工具调用（名称和参数都相同）后面又执行过时，前面的那一步已经没有价值
+     */
+    private static void dropSupersededSteps(List<Unit> units) {
+        Set<String> seen = new HashSet<>();
+        for (int i = units.size() - 1; i >= 0; i--) {
+            Unit unit = units.get(i);
+            if (!unit.isToolStep()) {
+                continue;
+            }
+            if (!seen.add(unit.callKey())) {
+                unit.dropped = true;
+            }
+        }
+    }
+
+    static String compactToolOutput(String output, int maxTokens) {
+        if (output == null) {
+            return null;
+        }
+        int tokens = TokenEstimator.estimate(output);
+        if (tokens <= maxTokens) {
+            return output;
+        }
+        String text = output;
+        String trimmed = output.stripLeading();
+        if (trimmed.startsWith("<") && trimmed.contains(">")) {
+            // 网页抓取等工具返回的是整页 HTML，只保留正文文本
+            text = Jsoup.parse(output).text();
+            if (TokenEstimator.estimate(text) <= maxTokens) {
+                return text;
+            }
+        }
+        return TokenEstimator.truncate(text, maxTokens) + String.format(TRUNCATED_NOTICE, tokens);
+    }
+
+    private static int estimate(Message message) {
+        int tokens = TokenEstimator.estimate(message);
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += TokenEstimator.estimate(toolCall.name()) + TokenEstimator.estimate(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += TokenEstimator.estimate(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 一条普通消息，或一次工具调用及其响应
+     */
+    private static final class Unit {
+        private final List<Message> messages = new ArrayList<>(2);
+        // 用户的原始任务，始终保留
+        private boolean pinned;
+        private boolean dropped;
+
+        private boolean isToolStep() {
+            return messages.size() == 2;
+        }
+
+        private String callKey() {
+            AssistantMessage assistantMessage = (AssistantMessage) messages.get(0);
+            StringBuilder key = new StringBuilder();
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                key.append(toolCall.name()).append('(').append(toolCall.arguments()).append(");");
+            }
+            return key.toString();
+        }
+
+        private void truncateToolOutputs(int maxTokens) {
+            ToolResponseMessage toolResponseMessage = (ToolResponseMessage) messages.get(1);
+            List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+            boolean changed = false;
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                String data = compactToolOutput(response.responseData(), maxTokens);
+                changed |= data != null && !data.equals(response.responseData());
+                responses.add(new ToolResponseMessage.ToolResponse(response.id(), response.name(), data));
+            }
+            if (changed) {
+                messages.set(1, new ToolResponseMessage(responses, toolResponseMessage.getMetadata()));
+            }
+        }
+
+        private int tokens() {
+            int tokens = 0;
+            for (Message message : messages) {
+                tokens += estimate(message);
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.zpark.learningagent.agent.session;
+
+import com.zpark.learningagent.agent.BaseAgent;
+
+/**
+ * 运行中智能体的会话注册表
+ * 记录会话 ID 与智能体实例的对应关系，用于中断和统计并发数。
+ * 多实例部署时，中断请求可能落到不持有该会话的节点上，由实现负责把中断转发给持有它的节点。
+ */
+public interface AgentSessionRegistry {
+
+    /**
+     * 登记本节点上开始运行的智能体
+     */
+    void register(String sessionId, BaseAgent agent);
+
+    /**
+     * 智能体运行结束后注销；只有登记的仍是同一个实例时才注销，避免误删复用同一会话 ID 的新运行
+     */
+    void unregister(String sessionId, BaseAgent agent);
+
+    /**
+     * 中断会话：本节点持有时直接中断，否则转发给持有它的节点
+     *
+     * @return 找到了该会话（本地中断或已转发）时返回 true
+     */
+    boolean interrupt(String sessionId);
+
+    /**
+     * 当前节点和整个集群的运行中会话数
+     */
+    Stats stats();
+
+    record Stats(String nodeId, int local, int cluster) {
+    }
+}
@@ -0,0 +1,40 @@
+package com.zpark.learningagent.agent.session;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * 会话注册表配置类
+ * 作用：根据 agent.session-registry.type 选择会话注册表
+ * local    - 只在本进程内查找会话，适用于单实例部署（默认）
+ * postgres - 会话登记到 PostgreSQL，中断请求通过 LISTEN/NOTIFY 转发到持有会话的节点，适用于多实例部署
+ */
+@Configuration
+public class AgentSessionRegistryConfig {
+
+    @Value("${agent.session-registry.type:local}")
+    private String type;
+
+    @Value("${agent.session-registry.table-name:agent_session}")
+    private String tableName;
+
+    @Value("${agent.session-registry.heartbeat-seconds:10}")
+    private long heartbeatSeconds;
+
+    @Value("${agent.session-registry.initialize-schema:true}")
+    private boolean initializeSchema;
+
+    @Bean
+    public AgentSessionRegistry agentSessionRegistry(ObjectProvider<DataSource> dataSourceProvider) {
+        if ("postgres".equalsIgnoreCase(type)) {
+            return new PostgresAgentSessionRegistry(dataSourceProvider.getObject(), tableName,
+                    Duration.ofSeconds(heartbeatSeconds), initializeSchema);
+        }
+        return new LocalAgentSessionRegistry();
+    }
+}
@@ -0,0 +1,40 @@
+package com.zpark.learningagent.agent.session;
+
+import com.zpark.learningagent.agent.BaseAgent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单节点的会话注册表，只在本进程内查找会话（默认）
+ */
+public class LocalAgentSessionRegistry implements AgentSessionRegistry {
+
+    private final Map<String, BaseAgent> runningAgents = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String sessionId, BaseAgent agent) {
+        runningAgents.put(sessionId, agent);
+    }
+
+    @Override
+    public void unregister(String sessionId, BaseAgent agent) {
+        runningAgents.remove(sessionId, agent);
+    }
+
+    @Override
+    public boolean interrupt(String sessionId) {
+        BaseAgent agent = runningAgents.remove(sessionId);
+        if (agent == null) {
+            return false;
+        }
+        agent.interrupt();
+        return true;
+    }
+
+    @Override
+    public Stats stats() {
+        int local = runningAgents.size();
+        return new Stats("local", local, local);
+    }
+}
@@ -0,0 +1,244 @@
+package com.zpark.learningagent.agent.session;
+
+import com.zpark.learningagent.agent.BaseAgent;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 PostgreSQL 的集群会话注册表
+ * 每个运行中的会话在表中登记所属节点，节点定期刷新心跳，心跳过期的行视为已失效（节点宕机）并被清理。
+ * 中断请求落到不持有该会话的节点时，通过 NOTIFY 广播会话 ID，持有它的节点在 LISTEN 连接上收到后中断本地的智能体。
+ * 监听占用连接池中的一个长期连接。
+ */
+public class PostgresAgentSessionRegistry implements AgentSessionRegistry, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PostgresAgentSessionRegistry.class);
+
+    private static final String CHANNEL = "agent_stop";
+
+    // 等待通知的轮询间隔，也决定了关闭时监听线程退出的最长等待时间
+    private static final int POLL_TIMEOUT_MS = 1000;
+
+    private final DataSource dataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String tableName;
+
+    // 本进程的节点 ID，每次启动都不同
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // 心跳超过这个时间没有刷新的会话视为失效
+    private final long sessionTtlSeconds;
+
+    private final Map<String, BaseAgent> localAgents = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService heartbeat;
+
+    private final Thread listener;
+
+    private volatile boolean closed;
+
+    /**
+     * @param dataSource        数据源，监听通知使用其中的一个长期连接
+     * @param tableName         会话表名
+     * @param heartbeatInterval 心跳间隔，会话在三个心跳间隔内没有刷新即视为失效
+     * @param initializeSchema  是否在启动时自动建表
+     */
+    public PostgresAgentSessionRegistry(DataSource dataSource, String tableName, Duration heartbeatInterval,
+                                        boolean initializeSchema) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.tableName = tableName;
+        long heartbeatSeconds = Math.max(1, heartbeatInterval.toSeconds());
+        this.sessionTtlSeconds = heartbeatSeconds * 3;
+        if (initializeSchema) {
+            initializeSchema();
+        }
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "agent-session-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        this.listener = new Thread(this::listen, "agent-session-listener");
+        this.listener.setDaemon(true);
+        this.listener.start();
+        log.info("集群会话注册表已启动，节点 ID: {}", nodeId);
+    }
+
+    @Override
+    public void register(String sessionId, BaseAgent agent) {
+        localAgents.put(sessionId, agent);
+        try {
+            jdbcTemplate.update("INSERT INTO " + tableName + " (session_id, node_id, started_at, heartbeat_at) "
+                    + "VALUES (?, ?, now(), now()) "
+                    + "ON CONFLICT (session_id) DO UPDATE SET node_id = EXCLUDED.node_id, "
+                    + "started_at = EXCLUDED.started_at, heartbeat_at = EXCLUDED.heartbeat_at",
+                    sessionId, nodeId);
+        } catch (RuntimeException e) {
+            // 数据库不可用时仍能在本节点中断
+            log.warn("登记会话 {} 失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void unregister(String sessionId, BaseAgent agent) {
+        if (localAgents.remove(sessionId, agent)) {
+            deleteRow(sessionId);
+        }
+    }
+
+    @Override
+    public boolean interrupt(String sessionId) {
+        if (interruptLocal(sessionId)) {
+            return true;
+        }
+        try {
+            List<String> owners = jdbcTemplate.queryForList("SELECT node_id FROM " + tableName
+                            + " WHERE session_id = ? AND heartbeat_at > now() - make_interval(secs => ?)",
+                    String.class, sessionId, sessionTtlSeconds);
+            if (owners.isEmpty()) {
+                return false;
+            }
+            // 所有节点都会收到通知，只有持有该会话的节点会处理
+            jdbcTemplate.queryForObject("SELECT pg_notify(?, ?)", Object.class, CHANNEL, sessionId);
+            log.info("会话 {} 属于节点 {}，已转发中断请求", sessionId, owners.get(0));
+            return true;
+        } catch (DataAccessException e) {
+            // 数据库不可用时无法转发，按未找到会话处理
+            log.warn("转发会话 {} 的中断请求失败: {}", sessionId, e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean interruptLocal(String sessionId) {
+        BaseAgent agent = localAgents.remove(sessionId);
+        if (agent == null) {
+            return false;
+        }
+        agent.interrupt();
+        deleteRow(sessionId);
+        return true;
+    }
+
+    @Override
+    public Stats stats() {
+        int cluster;
+        try {
+            Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + tableName
+                    + " WHERE heartbeat_at > now() - make_interval(secs => ?)", Integer.class, sessionTtlSeconds);
+            cluster = count != null ? count : 0;
+        } catch (RuntimeException e) {
+            log.warn("查询集群会话数失败: {}", e.getMessage());
+            cluster = -1;
+        }
+        return new Stats(nodeId, localAgents.size(), cluster);
+    }
+
+    /**
+     * 在专用连接上 LISTEN，收到中断通知时中断本节点持有的会话；连接断开后等待一会儿重新建立
+     */
+    private void listen() {
+        while (!closed) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!closed) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        if (interruptLocal(notification.getParameter())) {
+                            log.info("收到中断通知，已中断会话 {}", notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (closed) {
+                    return;
+                }
+                log.warn("会话中断监听连接异常，稍后重连: {}", e.getMessage());
+                try {
+                    Thread.sleep(POLL_TIMEOUT_MS);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 刷新本节点所有会话的心跳，并清理已失效的会话（节点宕机后遗留的行）
+     */
+    private void heartbeat() {
+        try {
+            if (!localAgents.isEmpty()) {
+                jdbcTemplate.update("UPDATE " + tableName + " SET heartbeat_at = now() WHERE node_id = ?", nodeId);
+            }
+            jdbcTemplate.update("DELETE FROM " + tableName
+                    + " WHERE heartbeat_at < now() - make_interval(secs => ?)", sessionTtlSeconds);
+        } catch (RuntimeException e) {
+            log.warn("刷新会话心跳失败: {}", e.getMessage());
+        }
+    }
+
+    private void deleteRow(String sessionId) {
+        try {
+            jdbcTemplate.update("DELETE FROM " + tableName + " WHERE session_id = ? AND node_id = ?",
+                    sessionId, nodeId);
+        } catch (RuntimeException e) {
+            log.warn("注销会话 {} 失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 时间列使用 TIMESTAMPTZ：与 now() 比较时不受各节点 JVM 默认时区（pgjdbc 据此设置会话时区）的影响
+     */
+    private void initializeSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "session_id VARCHAR(255) PRIMARY KEY, "
+                + "node_id VARCHAR(64) NOT NULL, "
+                + "started_at TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                + "heartbeat_at TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        heartbeat.shutdownNow();
+        try {
+            listener.join(POLL_TIMEOUT_MS * 2L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 本节点的会话随进程一起结束，删除它们的登记
+        try {
+            jdbcTemplate.update("DELETE FROM " + tableName + " WHERE node_id = ?", nodeId);
+        } catch (RuntimeException e) {
+            log.warn("清理本节点会话失败: {}", e.getMessage());
+        }
+    }
+}
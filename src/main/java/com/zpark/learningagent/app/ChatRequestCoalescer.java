@@ -0,0 +1,118 @@
+package com.zpark.learningagent.app;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 对话请求合并器
+ * 键相同（模式 + 规范化后的提问 + 会话历史指纹）的并发请求只向模型发起一次调用，其余请求等待并共享结果；
+ * 流式请求共享同一个上游流，后加入的订阅者会先收到已经生成的部分，再继续接收后续内容。
+ * 只合并正在进行中的请求，调用结束后不保留结果。
+ * 共享了别人结果的请求不会经过记忆顾问，调用方通过 onShared 回调自行把这一轮对话写入自己的会话记忆。
+ * 合并键要读取会话历史，以 Supplier 传入，关闭合并时不会计算。
+ */
+@Component
+public class ChatRequestCoalescer {
+
+    private final boolean enabled;
+
+    // 同一个键（键中带有模式前缀）的结果类型总是相同的
+    private final Map<String, CompletableFuture<Object>> inFlightCalls = new ConcurrentHashMap<>();
+
+    private final Map<String, Flux<String>> inFlightStreams = new ConcurrentHashMap<>();
+
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ChatRequestCoalescer(@Value("${chat-coalesce.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 同步调用：键相同的并发请求共享一次 loader 调用
+     *
+     * @param key      合并键，只在开启合并时计算
+     * @param onShared 当前请求共享了其他请求的结果时，以该结果调用
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T call(Supplier<String> key, Supplier<T> loader, Consumer<T> onShared) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String resolvedKey = key.get();
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightCalls.putIfAbsent(resolvedKey, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            T content;
+            try {
+                content = (T) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+            onShared.accept(content);
+            return content;
+        }
+        upstreamCalls.incrementAndGet();
+        try {
+            T content = loader.get();
+            mine.complete(content);
+            return content;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightCalls.remove(resolvedKey, mine);
+        }
+    }
+
+    /**
+     * 流式调用：键相同的并发请求订阅同一个上游流
+     *
+     * @param key      合并键，只在开启合并时、订阅时计算
+     * @param onShared 当前请求共享了其他请求的流时，在流正常结束后以完整回复调用
+     */
+    public Flux<String> stream(Supplier<String> key, Supplier<Flux<String>> source, Consumer<String> onShared) {
+        if (!enabled) {
+            return source.get();
+        }
+        return Flux.defer(() -> {
+            boolean[] leader = {false};
+            Flux<String> shared = inFlightStreams.computeIfAbsent(key.get(), k -> {
+                leader[0] = true;
+                AtomicReference<Flux<String>> self = new AtomicReference<>();
+                // 上游只连接一次：即使订阅者全部离开也会把这次回复生成完，保证已拿到该流的请求都能得到完整内容
+                self.set(Flux.defer(source)
+                        .doFinally(signal -> inFlightStreams.remove(k, self.get()))
+                        .replay()
+                        .autoConnect());
+                return self.get();
+            });
+            if (leader[0]) {
+                upstreamCalls.incrementAndGet();
+                return shared;
+            }
+            coalesced.incrementAndGet();
+            StringBuilder content = new StringBuilder();
+            return shared.doOnNext(content::append)
+                    .doOnComplete(() -> onShared.accept(content.toString()));
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(upstreamCalls.get(), coalesced.get(), inFlightCalls.size() + inFlightStreams.size());
+    }
+
+    public record Stats(long upstreamCalls, long coalesced, int inFlight) {
+    }
+}
@@ -1,7 +1,7 @@
 package com.zpark.learningagent.app;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import com.zpark.learningagent.advisor.MyLoggerAdvisor;
-import com.zpark.learningagent.chatmemory.FileBasedChatMemory;
 import com.zpark.learningagent.rag.LearningRagAdvisorFactory;
 import com.zpark.learningagent.rag.QueryRewriter;
 import jakarta.annotation.Resource;
@@ -12,6 +12,9 @@ import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.tool.ToolCallback;
@@ -26,8 +29,10 @@ import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvis
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Component
 public class LearningApp {
@@ -36,6 +41,16 @@ public class LearningApp {
 
     private final ChatClient chatClient;
 
+    private final ChatMemory chatMemory;
+
+    // 合并键相同的并发请求，只向模型发起一次调用
+    @Resource
+    private ChatRequestCoalescer chatRequestCoalescer;
+
+    // 语义相近的提问直接返回缓存的回答
+    @Resource
+    private SemanticResponseCache semanticResponseCache;
+
     private static final String SYSTEM_PROMPT = "你是一位专业的学习规划导师，擅长为不同背景的学习者制定个性化学习计划。" +
             "开场向用户表明身份，告知用户可以咨询学习规划相关问题。" +
             "围绕学习目标、当前水平、可用时间三个维度提问：" +
@@ -44,7 +59,7 @@ public class LearningApp {
             "可用时间方面询问每天可投入的学习时长和学习偏好。" +
             "引导用户详述学习目标、当前困难和期望效果，以便给出个性化学习方案。";
 
-    public LearningApp(ChatModel chatModel){
+    public LearningApp(ChatModel chatModel, ChatMemory chatMemory){
   /**
  * 初始化聊天客户端，配置系统提示和基于内存的聊天记忆。
  *
@@ -54,8 +69,9 @@ public class LearningApp {
 //初始化基于内存的聊天记忆
 //ChatMemory chatMemory = new InMemoryChatMemory();
   //初始化基于文件的聊天记忆
-  String fileDir = System.getProperty("user.dir")+"/tmp/chat-memory";
-  ChatMemory chatMemory = new FileBasedChatMemory(fileDir);
+//  String fileDir = System.getProperty("user.dir")+"/tmp/chat-memory";
+//  ChatMemory chatMemory = new FileBasedChatMemory(fileDir);
+  //聊天记忆由 ChatMemoryConfig 根据 chat-memory.store 配置创建（文件 / 追加日志）
 /**
  * 构建聊天客户端实例。
  *
@@ -66,6 +82,7 @@ public class LearningApp {
  * @param chatMemory 聊天记忆实例，用于存储和管理聊天历史
  * @return 配置完成的聊天客户端实例
  */
+this.chatMemory = chatMemory;
 chatClient = ChatClient.builder(chatModel)
         .defaultSystem(SYSTEM_PROMPT)
         .defaultAdvisors(
@@ -83,6 +100,20 @@ chatClient = ChatClient.builder(chatModel)
      */
     public String doChat(String message, String chatId) {
         log.info("用户：{}", message);
+        return chatRequestCoalescer.call(() -> coalesceKey("chat", message, chatId, 10),
+                () -> callChat(message, chatId),
+                content -> rememberReply(chatId, message, content));
+    }
+
+    private String callChat(String message, String chatId) {
+        // 回答依赖会话历史，只有新会话的第一问才走语义缓存
+        boolean newConversation = chatId == null || chatMemory.get(chatId, 1).isEmpty();
+        SemanticResponseCache.Lookup cached = newConversation
+                ? semanticResponseCache.lookup("chat", message) : null;
+        if (cached != null && cached.hit()) {
+            rememberReply(chatId, message, cached.answer());
+            return cached.answer();
+        }
         ChatResponse response = chatClient
                 .prompt()
                 .user(message)
@@ -92,6 +123,9 @@ chatClient = ChatClient.builder(chatModel)
                 .chatResponse();
         String content = response.getResult().getOutput().getText();
         log.info("AI回复：{}", content);
+        if (cached != null) {
+            semanticResponseCache.put("chat", message, cached, content);
+        }
         return content;
     }
   /**
@@ -134,8 +168,31 @@ record LearningReport(String title, List<String> suggestions) {
       // RAG问答功能实现方法
     // 结合向量检索和大语言模型，提供基于知识库的智能问答
     public String doChatWithRAG(String message, String chatId) {
+        // 同样的提问和会话历史只做一次查询重写和检索增强调用；未指定检索条数时记忆顾问默认读取最近 100 条
+        // 记忆顾问记下的是重写后的提问，共享结果的请求也记同一条提问，保证各会话的历史一致
+        return chatRequestCoalescer.call(() -> coalesceKey("rag", message, chatId, 100),
+                () -> callChatWithRAG(message, chatId),
+                reply -> rememberReply(chatId, reply.userMessage(), reply.content())).content();
+    }
+
+    /**
+     * 知识库问答的结果：实际发给模型的（重写后的）提问和回答
+     */
+    private record RagReply(String userMessage, String content) {
+    }
+
+    private RagReply callChatWithRAG(String message, String chatId) {
         //重写用户提问信息
         String rewriteMessage = queryRewriter.doQueryRewrite(message);
+        // 记忆顾问会带上会话历史，和普通对话一样只有新会话的第一问才走语义缓存；缓存键用重写后的提问
+        boolean newConversation = chatId == null || chatMemory.get(chatId, 1).isEmpty();
+        SemanticResponseCache.Lookup cached = newConversation
+                ? semanticResponseCache.lookup("rag", rewriteMessage) : null;
+        if (cached != null && cached.hit()) {
+            // 与未命中时记忆顾问的写法一致，记下重写后的提问
+            rememberReply(chatId, rewriteMessage, cached.answer());
+            return new RagReply(rewriteMessage, cached.answer());
+        }
         // 构建聊天请求并获取响应
         // 使用链式调用方式构建完整的聊天流程
         ChatResponse chatResponse = chatClient
@@ -167,8 +224,11 @@ record LearningReport(String title, List<String> suggestions) {
         String content = chatResponse.getResult().getOutput().getText();
         // 记录AI回复内容到日志
          log.info("content:" , content);
+        if (cached != null) {
+            semanticResponseCache.put("rag", rewriteMessage, cached, content);
+        }
         // 返回AI生成的回答内容
-        return content;
+        return new RagReply(rewriteMessage, content);
     }
     //--------集中调用Ai工具类-----------------------------------
     @Resource
@@ -240,15 +300,62 @@ record LearningReport(String title, List<String> suggestions) {
      * @return AI生成的回复内容
      */
     public Flux<String> doChatByStream(String message, String chatId) {
-    return chatClient
-            .prompt()
-            .user(message)
-            .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                    .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-            .stream()
-            .content();
+    // 同样的提问和会话历史共享同一个上游流，结果分发给每个订阅者
+    return chatRequestCoalescer.stream(() -> coalesceKey("stream", message, chatId, 10),
+            () -> streamChat(message, chatId),
+            content -> rememberReply(chatId, message, content));
 }
 
+    private Flux<String> streamChat(String message, String chatId) {
+        return chatClient
+                .prompt()
+                .user(message)
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .stream()
+                .content();
+    }
+
+    /**
+     * 请求合并键：模式 + 规范化后的提问 + 记忆顾问会读取的会话历史的指纹
+     * 历史不同的会话（例如已经聊过几轮的用户）不会共享回复
+     */
+    private String coalesceKey(String mode, String message, String chatId, int historySize) {
+        StringBuilder key = new StringBuilder()
+                .append(message == null ? "" : message.strip().replaceAll("\\s+", " ").toLowerCase())
+                .append('\u0000');
+        if (chatId != null) {
+            for (Message history : chatMemory.get(chatId, historySize)) {
+                key.append(history.getMessageType()).append(':').append(history.getText()).append('\u0000');
+            }
+        }
+        return mode + ":" + DigestUtil.sha256Hex(key.toString());
+    }
+
+    /**
+     * 共享了其他请求结果或命中语义缓存的请求没有经过记忆顾问，把这一轮对话补写到自己的会话记忆
+     */
+    private void rememberReply(String chatId, String message, String content) {
+        if (chatId != null) {
+            chatMemory.add(chatId, List.of(new UserMessage(message), new AssistantMessage(content)));
+        }
+    }
+
+    /**
+     * 非阻塞的对话方法
+     * 与 doChat 返回相同的完整回复，但基于流式调用拼接结果，等待模型响应期间不占用请求线程
+     *
+     * @param message 用户输入的消息内容
+     * @param chatId 会话ID，用于区分不同用户的对话历史
+     * @return 完整回复内容
+     */
+    public Mono<String> doChatReactive(String message, String chatId) {
+        log.info("用户：{}", message);
+        return doChatByStream(message, chatId)
+                .collect(Collectors.joining())
+                .doOnNext(content -> log.info("AI回复：{}", content));
+    }
+
 
 
 
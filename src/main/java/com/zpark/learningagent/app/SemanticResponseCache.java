@@ -0,0 +1,310 @@
+package com.zpark.learningagent.app;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 基于向量相似度的回复缓存
+ * 把提问向量化后在内存中查找语义相近的历史问答，余弦相似度超过阈值时直接返回缓存的回答，不再调用大模型。
+ * 每种模式（如 chat / rag）一个独立的命名空间，各自按条数做 LRU 淘汰，条目超过 TTL 后失效。
+ * 索引使用随机超平面 LSH：多张哈希表各自按向量落在超平面哪一侧分桶，查询时只比较同桶的候选；
+ * 条目较少时直接全量比较，结果是精确的。
+ */
+@Component
+public class SemanticResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(SemanticResponseCache.class);
+
+    // 条目数不超过该值时全量比较
+    private static final int EXACT_SCAN_LIMIT = 512;
+
+    // LSH 哈希表数和每张表的超平面数
+    private static final int TABLES = 4;
+    private static final int BITS = 12;
+
+    // 固定种子，保证同一进程内超平面稳定
+    private static final long SEED = 0x5EED_CAFEL;
+
+    private final Function<String, float[]> embedder;
+
+    private final MeterRegistry registry;
+
+    private final boolean enabled;
+
+    private final double threshold;
+
+    private final int maxEntries;
+
+    private final Duration ttl;
+
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SemanticResponseCache(EmbeddingModel dashscopeEmbeddingModel, MeterRegistry meterRegistry,
+                                 @Value("${semantic-cache.enabled:true}") boolean enabled,
+                                 @Value("${semantic-cache.similarity-threshold:0.92}") double threshold,
+                                 @Value("${semantic-cache.max-entries:2000}") int maxEntries,
+                                 @Value("${semantic-cache.ttl:6h}") Duration ttl) {
+        this(dashscopeEmbeddingModel::embed, meterRegistry, enabled, threshold, maxEntries, ttl);
+    }
+
+    public SemanticResponseCache(Function<String, float[]> embedder, MeterRegistry meterRegistry, boolean enabled,
+                                 double threshold, int maxEntries, Duration ttl) {
+        this.embedder = embedder;
+        this.registry = meterRegistry;
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttl = ttl;
+    }
+
+    /**
+     * 查找语义相近的历史回答
+     * 未命中时返回本次计算的向量，调用方拿到回答后传给 put，避免重复向量化
+     */
+    public Lookup lookup(String mode, String query) {
+        if (!enabled || query == null || query.isBlank()) {
+            return Lookup.MISS;
+        }
+        float[] embedding;
+        try {
+            embedding = normalize(embedder.apply(query));
+        } catch (RuntimeException e) {
+            log.warn("提问向量化失败，跳过语义缓存: {}", e.getMessage());
+            return Lookup.MISS;
+        }
+        Namespace namespace = namespace(mode);
+        Entry best = namespace.nearest(embedding, threshold, System.currentTimeMillis());
+        if (best == null) {
+            namespace.misses.increment();
+            return new Lookup(null, embedding);
+        }
+        namespace.hits.increment();
+        log.info("语义缓存命中 [{}]: {} -> {}", mode, query, best.question);
+        return new Lookup(best.answer, embedding);
+    }
+
+    /**
+     * 保存一次问答；lookup 没有得到向量或回答为空时忽略
+     */
+    public void put(String mode, String query, Lookup lookup, String answer) {
+        if (!enabled || lookup.embedding() == null || answer == null || answer.isBlank()) {
+            return;
+        }
+        namespace(mode).put(new Entry(query, answer, lookup.embedding(),
+                System.currentTimeMillis() + ttl.toMillis()));
+    }
+
+    public void clear() {
+        namespaces.values().forEach(Namespace::clear);
+        log.info("语义缓存已清空");
+    }
+
+    public Map<String, Stats> stats() {
+        Map<String, Stats> stats = new HashMap<>();
+        namespaces.forEach((mode, namespace) -> stats.put(mode, namespace.stats()));
+        return stats;
+    }
+
+    private Namespace namespace(String mode) {
+        return namespaces.computeIfAbsent(mode, Namespace::new);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        int length = Math.min(a.length, b.length);
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 查询结果：answer 为 null 表示未命中
+     */
+    public record Lookup(String answer, float[] embedding) {
+        private static final Lookup MISS = new Lookup(null, null);
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    public record Stats(long hits, long misses, int entries) {
+    }
+
+    private record Entry(String question, String answer, float[] embedding, long expiresAt) {
+    }
+
+    /**
+     * 单个模式的缓存，所有索引操作都在 this 锁内完成
+     */
+    private final class Namespace {
+        // 访问顺序的 LinkedHashMap 实现 LRU
+        private final LinkedHashMap<Entry, long[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final List<Map<Long, Set<Entry>>> tables = new ArrayList<>(TABLES);
+        private float[][] planes;
+        private final Counter hits;
+        private final Counter misses;
+
+        private Namespace(String mode) {
+            for (int i = 0; i < TABLES; i++) {
+                tables.add(new HashMap<>());
+            }
+            this.hits = Counter.builder("chat.semantic_cache.requests")
+                    .description("语义缓存查询次数")
+                    .tag("mode", mode)
+                    .tag("result", "hit")
+                    .register(registry);
+            this.misses = Counter.builder("chat.semantic_cache.requests")
+                    .description("语义缓存查询次数")
+                    .tag("mode", mode)
+                    .tag("result", "miss")
+                    .register(registry);
+            Gauge.builder("chat.semantic_cache.entries", this, namespace -> namespace.size())
+                    .tag("mode", mode)
+                    .register(registry);
+        }
+
+        private synchronized Entry nearest(float[] query, double minSimilarity, long now) {
+            Collection<Entry> candidates;
+            if (entries.size() <= EXACT_SCAN_LIMIT || planes == null) {
+                candidates = new ArrayList<>(entries.keySet());
+            } else {
+                Set<Entry> union = new HashSet<>();
+                long[] keys = bucketKeys(query);
+                for (int t = 0; t < TABLES; t++) {
+                    Set<Entry> bucket = tables.get(t).get(keys[t]);
+                    if (bucket != null) {
+                        union.addAll(bucket);
+                    }
+                }
+                candidates = union;
+            }
+            Entry best = null;
+            double bestSimilarity = minSimilarity;
+            for (Entry entry : candidates) {
+                if (entry.expiresAt() <= now) {
+                    remove(entry);
+                    continue;
+                }
+                double similarity = dot(query, entry.embedding());
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+            if (best != null) {
+                // 刷新 LRU 顺序
+                entries.get(best);
+            }
+            return best;
+        }
+
+        private synchronized void put(Entry entry) {
+            if (planes == null) {
+                planes = randomPlanes(entry.embedding().length);
+            }
+            long[] keys = bucketKeys(entry.embedding());
+            entries.put(entry, keys);
+            for (int t = 0; t < TABLES; t++) {
+                tables.get(t).computeIfAbsent(keys[t], key -> new HashSet<>()).add(entry);
+            }
+            while (entries.size() > maxEntries) {
+                remove(entries.keySet().iterator().next());
+            }
+        }
+
+        private void remove(Entry entry) {
+            long[] keys = entries.remove(entry);
+            if (keys == null) {
+                return;
+            }
+            for (int t = 0; t < TABLES; t++) {
+                Set<Entry> bucket = tables.get(t).get(keys[t]);
+                if (bucket != null) {
+                    bucket.remove(entry);
+                    if (bucket.isEmpty()) {
+                        tables.get(t).remove(keys[t]);
+                    }
+                }
+            }
+        }
+
+        private long[] bucketKeys(float[] vector) {
+            long[] keys = new long[TABLES];
+            if (planes == null) {
+                return keys;
+            }
+            for (int t = 0; t < TABLES; t++) {
+                long key = 0;
+                for (int b = 0; b < BITS; b++) {
+                    if (dot(vector, planes[t * BITS + b]) >= 0) {
+                        key |= 1L << b;
+                    }
+                }
+                keys[t] = key;
+            }
+            return keys;
+        }
+
+        private float[][] randomPlanes(int dimensions) {
+            Random random = new Random(SEED);
+            float[][] generated = new float[TABLES * BITS][dimensions];
+            for (float[] plane : generated) {
+                for (int i = 0; i < dimensions; i++) {
+                    plane[i] = (float) random.nextGaussian();
+                }
+            }
+            return generated;
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+            tables.forEach(Map::clear);
+        }
+
+        private Stats stats() {
+            return new Stats((long) hits.count(), (long) misses.count(), size());
+        }
+    }
+}
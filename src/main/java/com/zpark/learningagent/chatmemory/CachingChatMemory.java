@@ -0,0 +1,407 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 作用：带写回缓存的会话内存装饰器
+ * 热点会话的最近消息保存在内存中（LRU，按会话数和估算字节数双重限制），
+ * 命中时读写都不访问磁盘；新增的消息先记为脏数据，由后台线程按批次异步写入底层存储。
+ * 可以包装 FileBasedChatMemory、SegmentedLogChatMemory 或其他任意 ChatMemory 实现。
+ */
+public class CachingChatMemory implements ChatMemory, SweepableChatMemory, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingChatMemory.class);
+
+    // 每条消息的固定估算开销（对象头、元数据等）
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    private final ChatMemory delegate;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    // 每个会话在内存中保留的最近消息条数
+    private final int window;
+
+    private final int flushBatchSize;
+
+    // 访问顺序的 LinkedHashMap 实现 LRU，所有结构性操作都在 this 锁内完成
+    private final LinkedHashMap<String, CachedConversation> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 待刷盘的会话，保持插入顺序
+    private final Set<String> dirty = new LinkedHashSet<>();
+
+    // 已被淘汰但还没写完的会话，未命中时需要先等它写完再从底层读取
+    private final Map<String, CachedConversation> evicting = new ConcurrentHashMap<>();
+
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong flushedMessages = new AtomicLong();
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param delegate        底层会话存储
+     * @param maxEntries      最多缓存的会话数
+     * @param maxBytes        缓存消息的估算字节数上限
+     * @param window          每个会话缓存的最近消息条数
+     * @param flushIntervalMs 后台刷盘间隔（毫秒）
+     * @param flushBatchSize  每次刷盘最多处理的会话数
+     */
+    public CachingChatMemory(ChatMemory delegate, int maxEntries, long maxBytes, int window,
+                             long flushIntervalMs, int flushBatchSize) {
+        this.delegate = delegate;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.window = Math.max(1, window);
+        this.flushBatchSize = Math.max(1, flushBatchSize);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushDirty, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        CachedConversation conversation = getOrLoad(conversationId);
+        List<CachedConversation> evicted;
+        synchronized (this) {
+            // 加载后可能已被淘汰，重新放回缓存
+            CachedConversation current = entries.get(conversationId);
+            if (current == null) {
+                entries.put(conversationId, conversation);
+                totalBytes += conversation.bytes;
+                current = conversation;
+            }
+            conversation = current;
+            long before = conversation.bytes;
+            conversation.append(messages, window);
+            conversation.pending.addAll(messages);
+            totalBytes += conversation.bytes - before;
+            dirty.add(conversationId);
+            evicted = evictIfNeeded(conversationId);
+        }
+        flushEvicted(evicted);
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        CachedConversation conversation = getOrLoad(conversationId);
+        synchronized (this) {
+            if (conversation.complete || lastN <= conversation.messages.size()) {
+                return conversation.tail(lastN);
+            }
+        }
+        // 请求的条数超过缓存窗口，先把脏数据写入底层再直接读取
+        flush(conversationId, conversation);
+        return delegate.get(conversationId, lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        CachedConversation removed;
+        synchronized (this) {
+            removed = entries.remove(conversationId);
+            dirty.remove(conversationId);
+            if (removed != null) {
+                totalBytes -= removed.bytes;
+                removed.pending.clear();
+            }
+        }
+        CachedConversation pendingEviction = evicting.remove(conversationId);
+        if (pendingEviction != null) {
+            synchronized (this) {
+                pendingEviction.pending.clear();
+            }
+        }
+        delegate.clear(conversationId);
+    }
+
+    /**
+     * 先把脏数据写入底层，让底层按最新的修改时间判断是否空闲，再转发清理；
+     * 被清理的会话从缓存中移除，避免继续返回已删除的历史，或在之后刷盘时把它们写回去
+     */
+    @Override
+    public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+        if (!(delegate instanceof SweepableChatMemory sweepable)) {
+            throw new IllegalStateException("底层会话存储不支持清理: " + delegate.getClass().getName());
+        }
+        flushAll();
+        Set<String> swept = sweepable.sweep(idleTtl, maxBytesPerConversation);
+        for (String conversationId : swept) {
+            invalidate(conversationId);
+        }
+        return swept;
+    }
+
+    /**
+     * 从缓存中移除会话；清理期间新写入、还没刷盘的消息照常写入底层
+     */
+    private void invalidate(String conversationId) {
+        CachedConversation removed;
+        synchronized (this) {
+            removed = entries.remove(conversationId);
+            if (removed == null) {
+                return;
+            }
+            totalBytes -= removed.bytes;
+            dirty.remove(conversationId);
+            if (removed.pending.isEmpty()) {
+                return;
+            }
+            removed.id = conversationId;
+            evicting.put(conversationId, removed);
+        }
+        flushEvicted(List.of(removed));
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public CacheStats stats() {
+        synchronized (this) {
+            return new CacheStats(hits.get(), misses.get(), evictions.get(), flushedMessages.get(),
+                    entries.size(), totalBytes, dirty.size());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前把所有脏数据写入底层
+        flushAll();
+    }
+
+    private void flushAll() {
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(dirty);
+        }
+        for (String id : ids) {
+            CachedConversation conversation;
+            synchronized (this) {
+                conversation = entries.get(id);
+            }
+            if (conversation != null) {
+                flush(id, conversation);
+            }
+        }
+    }
+
+    /**
+     * 从缓存获取会话，未命中时从底层加载最近 window 条消息
+     */
+    private CachedConversation getOrLoad(String conversationId) {
+        synchronized (this) {
+            CachedConversation cached = entries.get(conversationId);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        CachedConversation pendingEviction = evicting.get(conversationId);
+        if (pendingEviction != null) {
+            flush(conversationId, pendingEviction);
+        }
+        List<Message> loaded = delegate.get(conversationId, window);
+        CachedConversation conversation = new CachedConversation();
+        conversation.messages.addAll(loaded);
+        conversation.complete = loaded.size() < window;
+        conversation.bytes = estimateBytes(loaded);
+        List<CachedConversation> evicted;
+        synchronized (this) {
+            CachedConversation existing = entries.putIfAbsent(conversationId, conversation);
+            if (existing != null) {
+                return existing;
+            }
+            totalBytes += conversation.bytes;
+            evicted = evictIfNeeded(conversationId);
+        }
+        flushEvicted(evicted);
+        return conversation;
+    }
+
+    /**
+     * 超出会话数或字节数上限时按 LRU 淘汰，调用方持有 this 锁；
+     * 淘汰的会话如果还有脏数据，返回给调用方在锁外写入底层
+     */
+    private List<CachedConversation> evictIfNeeded(String keepId) {
+        List<CachedConversation> evicted = null;
+        Iterator<Map.Entry<String, CachedConversation>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+            Map.Entry<String, CachedConversation> eldest = iterator.next();
+            if (eldest.getKey().equals(keepId)) {
+                continue;
+            }
+            iterator.remove();
+            CachedConversation conversation = eldest.getValue();
+            totalBytes -= conversation.bytes;
+            evictions.incrementAndGet();
+            if (dirty.remove(eldest.getKey())) {
+                conversation.id = eldest.getKey();
+                evicting.put(conversation.id, conversation);
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
+                }
+                evicted.add(conversation);
+            }
+        }
+        return evicted;
+    }
+
+    private void flushEvicted(List<CachedConversation> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (CachedConversation conversation : evicted) {
+            flush(conversation.id, conversation);
+            evicting.remove(conversation.id, conversation);
+        }
+    }
+
+    /**
+     * 后台刷盘：每次最多处理 flushBatchSize 个脏会话
+     */
+    private void flushDirty() {
+        try {
+            List<String> batch = new ArrayList<>(flushBatchSize);
+            List<CachedConversation> conversations = new ArrayList<>(flushBatchSize);
+            synchronized (this) {
+                Iterator<String> iterator = dirty.iterator();
+                while (iterator.hasNext() && batch.size() < flushBatchSize) {
+                    String id = iterator.next();
+                    iterator.remove();
+                    CachedConversation conversation = entries.get(id);
+                    if (conversation != null) {
+                        batch.add(id);
+                        conversations.add(conversation);
+                    }
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                flush(batch.get(i), conversations.get(i));
+            }
+        } catch (Exception e) {
+            log.error("会话缓存刷盘失败", e);
+        }
+    }
+
+    /**
+     * 把会话的脏消息写入底层；同一会话的刷盘通过 flushLock 串行，保证写入顺序
+     */
+    private void flush(String conversationId, CachedConversation conversation) {
+        conversation.flushLock.lock();
+        try {
+            List<Message> pending;
+            synchronized (this) {
+                if (conversation.pending.isEmpty()) {
+                    return;
+                }
+                pending = new ArrayList<>(conversation.pending);
+                conversation.pending.clear();
+            }
+            try {
+                delegate.add(conversationId, pending);
+                flushedMessages.addAndGet(pending.size());
+            } catch (RuntimeException e) {
+                // 写入失败时把消息放回队首，等待下次重试
+                synchronized (this) {
+                    conversation.pending.addAll(0, pending);
+                    if (entries.get(conversationId) == conversation) {
+                        dirty.add(conversationId);
+                    }
+                }
+                throw e;
+            }
+        } finally {
+            conversation.flushLock.unlock();
+        }
+    }
+
+    private static long estimateBytes(List<Message> messages) {
+        long bytes = 0;
+        for (Message message : messages) {
+            bytes += estimateBytes(message);
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(Message message) {
+        String text = message.getText();
+        return MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : text.length() * 2L);
+    }
+
+    /**
+     * 缓存中的单个会话
+     */
+    private static final class CachedConversation {
+        private String id;
+        // 最近的消息（最多 window 条）
+        private final List<Message> messages = new ArrayList<>();
+        // 还没写入底层的消息
+        private final List<Message> pending = new ArrayList<>();
+        private final ReentrantLock flushLock = new ReentrantLock();
+        // 缓存中是否包含该会话的全部历史
+        private boolean complete;
+        private long bytes;
+
+        private void append(List<Message> added, int window) {
+            messages.addAll(added);
+            bytes += estimateBytes(added);
+            int overflow = messages.size() - window;
+            if (overflow > 0) {
+                List<Message> dropped = messages.subList(0, overflow);
+                bytes -= estimateBytes(dropped);
+                dropped.clear();
+                complete = false;
+            }
+        }
+
+        private List<Message> tail(int lastN) {
+            int from = Math.max(0, messages.size() - Math.max(0, lastN));
+            return List.copyOf(messages.subList(from, messages.size()));
+        }
+    }
+
+    /**
+     * 缓存统计：命中、未命中、淘汰、已写入底层的消息数，以及当前会话数、估算字节数、脏会话数
+     */
+    public record CacheStats(long hits, long misses, long evictions, long flushedMessages,
+                             int entries, long bytes, int dirtyEntries) {
+    }
+}
@@ -0,0 +1,163 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+/**
+ * 会话内存配置类
+ * 作用：根据 chat-memory.store 选择会话内存的存储方式
+ * file      - 每个会话一个 .kryo 文件，每次整体读写，组提交原子替换（默认）
+ * segmented - 每个会话一个追加日志目录，每轮对话只做一次顺序追加
+ * jdbc      - 存到 PostgreSQL，多个实例共享会话历史
+ * chat-memory.cache.enabled 为 true 时在底层存储外包一层 LRU 写回缓存（默认关闭：add 返回时消息还没有落盘，
+ * 崩溃会丢失最近 flush-interval-ms 内的对话；jdbc 存储多实例共享会话，各节点的缓存会互相过期，不能开启）
+ * chat-memory.summary.enabled 为 true 时按 token 预算把较早的对话折叠成滚动摘要
+ * chat-memory.sweeper.enabled 为 true 时后台按空闲时间和单会话配额清理底层存储，清理经过缓存和摘要装饰器，它们会同时丢弃被清理会话的状态
+ */
+@Configuration
+public class ChatMemoryConfig {
+
+    @Value("${chat-memory.store:file}")
+    private String store;
+
+    @Value("${chat-memory.dir:${user.dir}/tmp/chat-memory}")
+    private String dir;
+
+    @Value("${chat-memory.format.compress:true}")
+    private boolean formatCompress;
+
+    @Value("${chat-memory.format.migrate-on-startup:false}")
+    private boolean formatMigrateOnStartup;
+
+    @Value("${chat-memory.file.commit-delay-ms:2}")
+    private long fileCommitDelayMs;
+
+    @Value("${chat-memory.file.fsync:true}")
+    private boolean fileFsync;
+
+    @Value("${chat-memory.segment.max-bytes:4194304}")
+    private long segmentMaxBytes;
+
+    @Value("${chat-memory.segment.compaction-min-segments:4}")
+    private int compactionMinSegments;
+
+    @Value("${chat-memory.segment.retain-messages:0}")
+    private int retainMessages;
+
+    @Value("${chat-memory.segment.compaction-interval-seconds:60}")
+    private long compactionIntervalSeconds;
+
+    @Value("${chat-memory.jdbc.table-name:chat_memory}")
+    private String jdbcTableName;
+
+    @Value("${chat-memory.jdbc.page-size:100}")
+    private int jdbcPageSize;
+
+    @Value("${chat-memory.jdbc.initialize-schema:true}")
+    private boolean jdbcInitializeSchema;
+
+    @Value("${chat-memory.cache.max-entries:1000}")
+    private int cacheMaxEntries;
+
+    @Value("${chat-memory.cache.max-bytes:67108864}")
+    private long cacheMaxBytes;
+
+    @Value("${chat-memory.cache.window:200}")
+    private int cacheWindow;
+
+    @Value("${chat-memory.cache.flush-interval-ms:200}")
+    private long cacheFlushIntervalMs;
+
+    @Value("${chat-memory.cache.flush-batch-size:64}")
+    private int cacheFlushBatchSize;
+
+    @Value("${chat-memory.summary.enabled:false}")
+    private boolean summaryEnabled;
+
+    @Value("${chat-memory.summary.token-budget:2000}")
+    private int summaryTokenBudget;
+
+    @Value("${chat-memory.summary.history-window:200}")
+    private int summaryHistoryWindow;
+
+    @Value("${chat-memory.summary.max-conversations:10000}")
+    private int summaryMaxConversations;
+
+    @Value("${chat-memory.sweeper.idle-ttl:7d}")
+    private Duration sweeperIdleTtl;
+
+    @Value("${chat-memory.sweeper.max-bytes-per-conversation:0}")
+    private long sweeperMaxBytesPerConversation;
+
+    @Value("${chat-memory.sweeper.interval-seconds:600}")
+    private long sweeperIntervalSeconds;
+
+    /**
+     * 底层存储（文件 / 追加日志 / 数据库）
+     */
+    @Bean
+    public ChatMemory chatMemoryStore(ObjectProvider<JdbcTemplate> jdbcTemplateProvider) {
+        if ("jdbc".equalsIgnoreCase(store)) {
+            return new JdbcChatMemory(jdbcTemplateProvider.getObject(), jdbcTableName,
+                    jdbcPageSize, jdbcInitializeSchema);
+        }
+        if ("segmented".equalsIgnoreCase(store)) {
+            return new SegmentedLogChatMemory(dir, segmentMaxBytes, compactionMinSegments,
+                    retainMessages, compactionIntervalSeconds);
+        }
+        FileBasedChatMemory fileBasedChatMemory = new FileBasedChatMemory(dir, formatCompress,
+                fileCommitDelayMs, fileFsync);
+        if (formatMigrateOnStartup) {
+            fileBasedChatMemory.migrateToV2();
+        }
+        return fileBasedChatMemory;
+    }
+
+    /**
+     * 底层存储外的写回缓存，单独注册为 Bean 以便暴露统计信息
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "chat-memory.cache", name = "enabled", havingValue = "true")
+    public CachingChatMemory chatMemoryCache(@Qualifier("chatMemoryStore") ChatMemory chatMemoryStore) {
+        if ("jdbc".equalsIgnoreCase(store)) {
+            throw new IllegalStateException("chat-memory.cache 不能与 jdbc 存储同时开启：各实例的缓存会返回过期的会话历史");
+        }
+        return new CachingChatMemory(chatMemoryStore, cacheMaxEntries, cacheMaxBytes, cacheWindow,
+                cacheFlushIntervalMs, cacheFlushBatchSize);
+    }
+
+    /**
+     * 应用使用的会话内存：在底层存储外按配置叠加缓存和摘要
+     */
+    @Bean
+    @Primary
+    public ChatMemory chatMemory(@Qualifier("chatMemoryStore") ChatMemory chatMemoryStore,
+                                 ObjectProvider<CachingChatMemory> chatMemoryCache, ChatModel dashscopeChatModel) {
+        ChatMemory chatMemory = chatMemoryCache.getIfAvailable(() -> chatMemoryStore);
+        if (summaryEnabled) {
+            chatMemory = new SummarizingChatMemory(chatMemory, dashscopeChatModel,
+                    summaryTokenBudget, summaryHistoryWindow, summaryMaxConversations);
+        }
+        return chatMemory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "chat-memory.sweeper", name = "enabled", havingValue = "true")
+    public ChatMemorySweeper chatMemorySweeper(@Qualifier("chatMemory") ChatMemory chatMemory) {
+        if (!(chatMemory instanceof SweepableChatMemory sweepable)) {
+            throw new IllegalStateException("当前会话存储不支持清理: " + chatMemory.getClass().getName());
+        }
+        return new ChatMemorySweeper(sweepable, sweeperIdleTtl, sweeperMaxBytesPerConversation,
+                sweeperIntervalSeconds);
+    }
+}
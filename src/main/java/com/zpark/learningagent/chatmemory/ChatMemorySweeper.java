@@ -0,0 +1,58 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 作用：会话存储的后台清理器
+ * 定期调用存储的 sweep，删除长时间空闲的会话、裁剪超过配额的会话，
+ * 让存储的磁盘占用和目录规模在生产环境中保持有界。
+ */
+public class ChatMemorySweeper implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatMemorySweeper.class);
+
+    private final SweepableChatMemory target;
+
+    private final Duration idleTtl;
+
+    private final long maxBytesPerConversation;
+
+    private final ScheduledExecutorService scheduler;
+
+    public ChatMemorySweeper(SweepableChatMemory target, Duration idleTtl, long maxBytesPerConversation,
+                             long intervalSeconds) {
+        this.target = target;
+        this.idleTtl = idleTtl;
+        this.maxBytesPerConversation = maxBytesPerConversation;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, intervalSeconds);
+        this.scheduler.scheduleWithFixedDelay(this::sweepNow, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 立即执行一次清理
+     */
+    public void sweepNow() {
+        try {
+            target.sweep(idleTtl, maxBytesPerConversation);
+        } catch (Exception e) {
+            log.error("清理会话存储失败", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,29 @@
+package com.zpark.learningagent.chatmemory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * 会话存储的分片目录布局
+ * 作用：按会话 ID 的 CRC32 取前两字节作为两级子目录（如 base/3f/a2/），
+ * 单个目录下的条目数最多只有 256 个子目录或少量会话，目录查找不会随会话总数变慢。
+ */
+final class ConversationPaths {
+
+    // 分片目录的层数，扫描会话时按这个深度遍历
+    static final int SHARD_DEPTH = 2;
+
+    private ConversationPaths() {
+    }
+
+    /**
+     * 会话所在的分片目录
+     */
+    static Path shardDir(Path baseDir, String conversationId) {
+        CRC32 crc = new CRC32();
+        crc.update(conversationId.getBytes(StandardCharsets.UTF_8));
+        String hex = String.format("%08x", crc.getValue());
+        return baseDir.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4));
+    }
+}
@@ -1,34 +1,67 @@
 package com.zpark.learningagent.chatmemory;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import lombok.val;
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 /**
  * 作用：基于文件存储的会话内存
+ * 序列化使用池化的 Kryo 实例，同一会话的读-改-写通过分段锁串行化，不同会话可以并发读写。
+ * 会话文件按 ID 哈希分片到两级子目录中，避免单个目录无限增长。
+ * 文件使用带校验的 v2 格式（见 MessageFileFormat），旧的 v1 文件照常可读，下次保存或调用 migrateToV2 时转换。
+ * 保存通过组提交写入器完成：先写临时文件再原子替换，并发请求的写入合并成一批统一 fsync。
  */
-public class FileBasedChatMemory implements ChatMemory {
+public class FileBasedChatMemory implements ChatMemory, SweepableChatMemory, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileBasedChatMemory.class);
+
+    private static final String FILE_SUFFIX = ".kryo";
+
     private final String BASE_PATH;
-    private static final Kryo kryo = new Kryo();
-    static {
-        // 允许未注册的类
-        kryo.setRegistrationRequired(false);
-        //设置实例化策略
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-    }
+
+    // 按会话分段的读写锁
+    private final StripedLocks locks = new StripedLocks(64);
+
+    // 写入时是否压缩较大的消息帧
+    private final boolean compress;
+
+    private final GroupCommitWriter writer;
+
     //构造对象时，指定文件保存路径
     public FileBasedChatMemory(String dir){
+        this(dir, true);
+    }
+
+    public FileBasedChatMemory(String dir, boolean compress){
+        this(dir, compress, 2, true);
+    }
+
+    /**
+     * @param dir           会话文件根目录
+     * @param compress      是否压缩较大的消息帧
+     * @param commitDelayMs 组提交窗口（毫秒），窗口内到达的写入合并成一次 fsync
+     * @param fsync         是否 fsync，关闭后仍然原子替换但不保证掉电后持久
+     */
+    public FileBasedChatMemory(String dir, boolean compress, long commitDelayMs, boolean fsync){
         this.BASE_PATH = dir;
+        this.compress = compress;
+        this.writer = new GroupCommitWriter(commitDelayMs, fsync);
         File baseDir = new File(dir);
         if(!baseDir.exists()){
             baseDir.mkdirs();
@@ -36,19 +69,32 @@ public class FileBasedChatMemory implements ChatMemory {
     }
     @Override
     public void add(String conversationId, Message message) {
-        saveConversation(conversationId, List.of());
+        add(conversationId, List.of(message));
     }
 
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message>  messagesList  = getOrCreateConversation(conversationId);
-        messagesList.addAll(messages);
-        saveConversation(conversationId, messagesList);
+        Lock lock = locks.get(conversationId).writeLock();
+        lock.lock();
+        try {
+            List<Message>  messagesList  = getOrCreateConversation(conversationId);
+            messagesList.addAll(messages);
+            saveConversation(conversationId, messagesList);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> messages = getOrCreateConversation(conversationId);
+        List<Message> messages;
+        Lock lock = locks.get(conversationId).readLock();
+        lock.lock();
+        try {
+            messages = getOrCreateConversation(conversationId);
+        } finally {
+            lock.unlock();
+        }
         return messages.stream()
                 .skip(Math.max(0, messages.size() - lastN))
                 .toList();
@@ -56,38 +102,186 @@ public class FileBasedChatMemory implements ChatMemory {
 
     @Override
     public void clear(String conversationId) {
+        Lock lock = locks.get(conversationId).writeLock();
+        lock.lock();
+        try {
+            File file = getConversationFile(conversationId);
+            if (file.exists() && !file.delete()) {
+                log.warn("删除会话文件失败: {}", file);
+            }
+            // 崩溃遗留的临时文件一并删除
+            GroupCommitWriter.tempFile(file.toPath()).toFile().delete();
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * 删除空闲过期的会话文件，超过配额的会话只保留最近的消息
+     */
+    @Override
+    public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        int trimmed = 0;
+        Set<String> swept = new HashSet<>();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(Paths.get(BASE_PATH), ConversationPaths.SHARD_DEPTH + 1)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX)).toList();
+        } catch (IOException e) {
+            log.error("扫描会话目录失败: {}", BASE_PATH, e);
+            return swept;
+        }
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            String conversationId = name.substring(0, name.length() - FILE_SUFFIX.length());
+            Lock lock = locks.get(conversationId).writeLock();
+            lock.lock();
+            try {
+                File file = path.toFile();
+                if (!file.exists()) {
+                    continue;
+                }
+                if (idleTtl != null && !idleTtl.isZero() && now - file.lastModified() > idleTtl.toMillis()) {
+                    if (file.delete()) {
+                        expired++;
+                        swept.add(conversationId);
+                    }
+                } else if (maxBytesPerConversation > 0 && file.length() > maxBytesPerConversation) {
+                    List<Message> messages = getOrCreateConversation(conversationId);
+                    saveConversation(conversationId, trimToQuota(messages, maxBytesPerConversation));
+                    trimmed++;
+                    swept.add(conversationId);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (expired > 0 || trimmed > 0) {
+            log.info("会话清理完成：删除过期会话 {} 个，裁剪超额会话 {} 个", expired, trimmed);
+        }
+        return swept;
+    }
+
+    /**
+     * 把目录下所有 v1 格式的会话文件转换成 v2 格式
+     * 逐个会话处理，每次只在内存中保留一个会话；转换结果经写入器原子替换，中途失败不影响原文件
+     *
+     * @return 转换的文件数
+     */
+    public int migrateToV2() {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(Paths.get(BASE_PATH), ConversationPaths.SHARD_DEPTH + 1)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX)).toList();
+        } catch (IOException e) {
+            log.error("扫描会话目录失败: {}", BASE_PATH, e);
+            return 0;
+        }
+        int migrated = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            String conversationId = name.substring(0, name.length() - FILE_SUFFIX.length());
+            Lock lock = locks.get(conversationId).writeLock();
+            lock.lock();
+            try {
+                // 平铺目录下的旧文件在这里顺带迁移到分片目录
+                Path file = getConversationFile(conversationId).toPath();
+                if (!Files.exists(file) || MessageFileFormat.isV2(file)) {
+                    continue;
+                }
+                long before = Files.size(file);
+                writer.write(file, encode(MessageFileFormat.read(file)));
+                migrated++;
+                bytesBefore += before;
+                bytesAfter += Files.size(file);
+            } catch (Exception e) {
+                log.warn("转换会话文件失败, conversationId={}", conversationId, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (migrated > 0) {
+            log.info("会话文件格式转换完成：{} 个文件，{} 字节 -> {} 字节", migrated, bytesBefore, bytesAfter);
+        }
+        return migrated;
     }
+
+    /**
+     * 从最早的消息开始丢弃，直到序列化后的总大小不超过配额（至少保留最新一条）
+     */
+    private static List<Message> trimToQuota(List<Message> messages, long maxBytes) {
+        long[] sizes = new long[messages.size()];
+        long total = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            sizes[i] = KryoSerializer.serialize(messages.get(i)).length;
+            total += sizes[i];
+        }
+        int from = 0;
+        while (total > maxBytes && from < messages.size() - 1) {
+            total -= sizes[from++];
+        }
+        return new ArrayList<>(messages.subList(from, messages.size()));
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
     /**
      * 获取会话
+     * 文件存在却读不出来时直接失败，而不是当成空会话，否则下一次保存会覆盖掉原有历史
      */
     private List< Message> getOrCreateConversation(String conversationId){
         File file = getConversationFile(conversationId);
         List<Message> messages = new ArrayList<>();
         if(file.exists()){
-            try(Input input = new Input(new FileInputStream(file))){
-                messages = kryo.readObject(input, ArrayList.class);
+            try{
+                messages = MessageFileFormat.read(file.toPath());
             }catch (Exception e){
-                e.printStackTrace();
+                log.error("读取会话文件失败: {}", file, e);
+                throw new IllegalStateException("读取会话文件失败: " + file, e);
             }
         }
         return messages;
     }
     /**
-     * 保存对话信息
+     * 保存对话信息，返回时文件已经原子替换并落盘
      */
     private void saveConversation(String conversationId, List<Message> messages){
         File file = getConversationFile(conversationId);
-        try(Output output = new Output(new FileOutputStream(file))){
-            kryo.writeObject(output, messages);
-        }catch (Exception e){
-            e.printStackTrace();
+        try{
+            writer.write(file.toPath(), encode(messages));
+        }catch (IOException e){
+            log.error("保存会话文件失败: {}", file, e);
+            throw new UncheckedIOException("保存会话文件失败: " + file, e);
         }
     }
+
+    private byte[] encode(List<Message> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageFileFormat.write(out, messages, compress);
+        return out.toByteArray();
+    }
     /**
-     * 每个不同的会话文件单独保存
+     * 每个不同的会话文件单独保存，按会话 ID 分片到子目录
      */
     private File getConversationFile(String conversationId){
-        return new File(BASE_PATH, conversationId + ".kryo");
+        File shardDir = ConversationPaths.shardDir(Paths.get(BASE_PATH), conversationId).toFile();
+        File file = new File(shardDir, conversationId + FILE_SUFFIX);
+        if (!file.exists()) {
+            // 兼容旧的平铺目录：首次访问时迁移到分片目录
+            // get() 只持有读锁，并发的读取可能同时迁移，重命名失败时先看是否已被别的线程迁移
+            File legacy = new File(BASE_PATH, conversationId + FILE_SUFFIX);
+            if (legacy.exists()) {
+                shardDir.mkdirs();
+                if (!legacy.renameTo(file) && !file.exists()) {
+                    return legacy;
+                }
+            }
+        }
+        return file;
     }
 }
@@ -0,0 +1,272 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 作用：整文件替换的组提交写入器
+ * 调用方提交“目标文件 + 完整内容”后阻塞等待，后台线程把一个提交窗口内到达的所有写入合并成一批：
+ * 每个文件写入自己的临时文件并 fsync，然后原子重命名覆盖目标文件，再 fsync 涉及的目录，最后一起唤醒调用方。
+ * 每个文件仍然各需要一次 fsync，合并成批节省的是目录 fsync 和线程切换；批内各文件的写入和 fsync 在虚拟线程上并行，
+ * 一批的耗时接近其中最慢的一个文件，而不是所有文件之和。
+ * 同一批内对同一文件的多次写入只落盘最后一次。崩溃时目标文件要么是旧内容要么是新内容，不会出现半截文件。
+ */
+final class GroupCommitWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // 一批最多合并的写入请求数
+    private static final int MAX_BATCH = 256;
+
+    private final BlockingQueue<WriteRequest> queue = new LinkedBlockingQueue<>();
+
+    // 收到第一个请求后继续等待同批请求的时间
+    private final long commitDelayNanos;
+
+    // 是否在重命名前后 fsync，关闭后只保证原子替换
+    private final boolean fsync;
+
+    private final Thread committer;
+
+    // 并行写入、fsync 批内各个临时文件
+    private final ExecutorService fileWriters = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 已提交的批次数和落盘的文件数，只由后台线程更新
+    private volatile long batchCount;
+
+    private volatile long fileCount;
+
+    private volatile boolean closed;
+
+    GroupCommitWriter(long commitDelayMs, boolean fsync) {
+        this.commitDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, commitDelayMs));
+        this.fsync = fsync;
+        this.committer = new Thread(this::runCommitLoop, "chat-memory-group-commit");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * 用 content 原子替换 target，返回时数据已经落盘
+     */
+    void write(Path target, byte[] content) throws IOException {
+        if (closed) {
+            throw new IOException("写入器已关闭");
+        }
+        WriteRequest request = new WriteRequest(target, content, new CompletableFuture<>());
+        queue.add(request);
+        while (true) {
+            try {
+                request.done().get(1, TimeUnit.SECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // 与 close 并发时请求可能在后台线程退出后才入队，这里兜底
+                if (!committer.isAlive() && queue.remove(request)) {
+                    throw new IOException("写入器已关闭");
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException("写入会话文件失败: " + target, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待写入时被中断: " + target, e);
+            }
+        }
+    }
+
+    private void runCommitLoop() {
+        List<WriteRequest> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                WriteRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + commitDelayNanos;
+                while (batch.size() < MAX_BATCH) {
+                    long remaining = deadline - System.nanoTime();
+                    WriteRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        // 关闭时仍未处理的请求直接失败，避免调用方一直阻塞
+        WriteRequest request;
+        while ((request = queue.poll()) != null) {
+            request.done().completeExceptionally(new IOException("写入器已关闭"));
+        }
+    }
+
+    private void commit(List<WriteRequest> batch) {
+        // 同一文件只保留最后一次写入，但所有请求都要被唤醒
+        Map<Path, byte[]> latest = new LinkedHashMap<>();
+        Map<Path, List<CompletableFuture<Void>>> waiters = new LinkedHashMap<>();
+        for (WriteRequest request : batch) {
+            latest.put(request.target(), request.content());
+            waiters.computeIfAbsent(request.target(), key -> new ArrayList<>()).add(request.done());
+        }
+        Map<Path, IOException> failures = new LinkedHashMap<>();
+        List<Path> written = writeTemps(latest, failures);
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path target : written) {
+            try {
+                Files.move(tempFile(target), target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                directories.add(target.getParent());
+            } catch (IOException e) {
+                failures.put(target, e);
+            }
+        }
+        if (fsync) {
+            for (Path directory : directories) {
+                forceDirectory(directory);
+            }
+        }
+        // 先更新统计再唤醒调用方，调用方返回后就能看到本批的计数
+        batchCount++;
+        fileCount += latest.size();
+        for (Map.Entry<Path, List<CompletableFuture<Void>>> entry : waiters.entrySet()) {
+            IOException failure = failures.get(entry.getKey());
+            for (CompletableFuture<Void> done : entry.getValue()) {
+                if (failure == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(failure);
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("组提交完成：{} 个请求，{} 个文件，{} 个失败", batch.size(), latest.size(), failures.size());
+        }
+    }
+
+    /**
+     * 写出批内所有临时文件，多个文件时并行执行，返回写入成功的目标文件
+     */
+    private List<Path> writeTemps(Map<Path, byte[]> latest, Map<Path, IOException> failures) {
+        List<Path> written = new ArrayList<>(latest.size());
+        if (latest.size() == 1) {
+            Map.Entry<Path, byte[]> entry = latest.entrySet().iterator().next();
+            try {
+                writeTemp(entry.getKey(), entry.getValue());
+                written.add(entry.getKey());
+            } catch (IOException e) {
+                failures.put(entry.getKey(), e);
+            }
+            return written;
+        }
+        Map<Path, Future<?>> futures = new LinkedHashMap<>();
+        for (Map.Entry<Path, byte[]> entry : latest.entrySet()) {
+            futures.put(entry.getKey(), fileWriters.submit(() -> {
+                writeTemp(entry.getKey(), entry.getValue());
+                return null;
+            }));
+        }
+        for (Map.Entry<Path, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+                written.add(entry.getKey());
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey(), e.getCause() instanceof IOException ioException
+                        ? ioException : new IOException("写入临时文件失败: " + entry.getKey(), e.getCause()));
+            } catch (InterruptedException e) {
+                // 后台线程只在关闭时被中断，剩余的文件按失败处理，调用方不会一直阻塞
+                Thread.currentThread().interrupt();
+                failures.put(entry.getKey(), new IOException("写入被中断: " + entry.getKey(), e));
+            }
+        }
+        return written;
+    }
+
+    private void writeTemp(Path target, byte[] content) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (FileChannel channel = FileChannel.open(tempFile(target), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * fsync 目录，使重命名本身持久化；部分平台不支持打开目录，失败时忽略
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("无法 fsync 目录: {}", directory);
+        }
+    }
+
+    long batchCount() {
+        return batchCount;
+    }
+
+    long fileCount() {
+        return fileCount;
+    }
+
+    static Path tempFile(Path target) {
+        return target.resolveSibling(target.getFileName() + TMP_SUFFIX);
+    }
+
+    /**
+     * 处理完已提交的写入后停止后台线程
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fileWriters.shutdown();
+    }
+
+    private record WriteRequest(Path target, byte[] content, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,165 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 作用：基于 PostgreSQL 的会话内存
+ * 消息按 (conversation_id, seq) 有序存储，seq 来自全局自增序列，多个应用实例可以共享同一份会话历史。
+ * 追加时一次多行 INSERT 写入整批消息，读取最近 N 条时按 seq 倒序做键集分页，不使用 OFFSET。
+ */
+public class JdbcChatMemory implements ChatMemory, SweepableChatMemory {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcChatMemory.class);
+
+    // 单条 INSERT 语句最多包含的行数，避免超出 JDBC 参数个数限制
+    private static final int MAX_ROWS_PER_INSERT = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String tableName;
+
+    // 每页读取的行数
+    private final int pageSize;
+
+    public JdbcChatMemory(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, "chat_memory", 100, true);
+    }
+
+    /**
+     * @param jdbcTemplate     数据库连接模板
+     * @param tableName        消息表名
+     * @param pageSize         键集分页每页读取的行数
+     * @param initializeSchema 是否在启动时自动建表和索引
+     */
+    public JdbcChatMemory(JdbcTemplate jdbcTemplate, String tableName, int pageSize, boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tableName = tableName;
+        this.pageSize = Math.max(1, pageSize);
+        if (initializeSchema) {
+            initializeSchema();
+        }
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        for (int start = 0; start < messages.size(); start += MAX_ROWS_PER_INSERT) {
+            List<Message> chunk = messages.subList(start, Math.min(messages.size(), start + MAX_ROWS_PER_INSERT));
+            StringBuilder sql = new StringBuilder("INSERT INTO ")
+                    .append(tableName)
+                    .append(" (conversation_id, message_type, payload) VALUES ");
+            List<Object> args = new ArrayList<>(chunk.size() * 3);
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append("(?, ?, ?)");
+                Message message = chunk.get(i);
+                args.add(conversationId);
+                args.add(message.getMessageType().name());
+                args.add(KryoSerializer.serialize(message));
+            }
+            jdbcTemplate.update(sql.toString(), args.toArray());
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        List<Message> messages = new ArrayList<>(Math.min(lastN, 1024));
+        Long beforeSeq = null;
+        while (messages.size() < lastN) {
+            int limit = Math.min(pageSize, lastN - messages.size());
+            List<Row> page = beforeSeq == null
+                    ? jdbcTemplate.query("SELECT seq, payload FROM " + tableName
+                            + " WHERE conversation_id = ? ORDER BY seq DESC LIMIT ?",
+                    (rs, rowNum) -> new Row(rs.getLong(1), rs.getBytes(2)), conversationId, limit)
+                    : jdbcTemplate.query("SELECT seq, payload FROM " + tableName
+                            + " WHERE conversation_id = ? AND seq < ? ORDER BY seq DESC LIMIT ?",
+                    (rs, rowNum) -> new Row(rs.getLong(1), rs.getBytes(2)), conversationId, beforeSeq, limit);
+            for (Row row : page) {
+                try {
+                    messages.add(KryoSerializer.deserialize(row.payload()));
+                } catch (RuntimeException e) {
+                    log.warn("无法解析会话消息, conversationId={}, seq={}", conversationId, row.seq(), e);
+                }
+            }
+            if (page.size() < limit) {
+                break;
+            }
+            beforeSeq = page.get(page.size() - 1).seq();
+        }
+        // 查询结果是从新到旧，反转成时间顺序
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        jdbcTemplate.update("DELETE FROM " + tableName + " WHERE conversation_id = ?", conversationId);
+    }
+
+    /**
+     * 删除最后一条消息早于 idleTtl 的会话；超过配额的会话按 seq 倒序累加消息大小，删除超出配额的较早消息，
+     * 最新的一条消息即使单独超过配额也保留，与文件存储一致
+     */
+    @Override
+    public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+        List<String> expired = List.of();
+        List<String> trimmed = List.of();
+        // 通过 RETURNING 拿到受影响的会话，供上层装饰器丢弃对应的状态
+        if (idleTtl != null && !idleTtl.isZero()) {
+            Timestamp deadline = new Timestamp(System.currentTimeMillis() - idleTtl.toMillis());
+            expired = jdbcTemplate.queryForList("WITH deleted AS (DELETE FROM " + tableName
+                    + " WHERE conversation_id IN (SELECT conversation_id FROM " + tableName
+                    + " GROUP BY conversation_id HAVING MAX(created_at) < ?) RETURNING conversation_id)"
+                    + " SELECT DISTINCT conversation_id FROM deleted", String.class, deadline);
+        }
+        if (maxBytesPerConversation > 0) {
+            trimmed = jdbcTemplate.queryForList("WITH deleted AS (DELETE FROM " + tableName
+                    + " WHERE (conversation_id, seq) IN ("
+                    + "SELECT conversation_id, seq FROM ("
+                    + "SELECT conversation_id, seq, octet_length(payload) AS bytes, SUM(octet_length(payload)) OVER "
+                    + "(PARTITION BY conversation_id ORDER BY seq DESC ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING)"
+                    + " AS newer_bytes FROM " + tableName
+                    // 最新一条没有更新的消息，newer_bytes 为 NULL，始终保留
+                    + ") ranked WHERE newer_bytes IS NOT NULL AND newer_bytes + bytes > ?) RETURNING conversation_id)"
+                    + " SELECT DISTINCT conversation_id FROM deleted", String.class, maxBytesPerConversation);
+        }
+        if (!expired.isEmpty() || !trimmed.isEmpty()) {
+            log.info("会话表清理完成：删除过期会话 {} 个，裁剪超额会话 {} 个", expired.size(), trimmed.size());
+        }
+        Set<String> swept = new HashSet<>(expired);
+        swept.addAll(trimmed);
+        return swept;
+    }
+
+    private void initializeSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "seq BIGSERIAL NOT NULL, "
+                + "conversation_id VARCHAR(255) NOT NULL, "
+                + "message_type VARCHAR(16) NOT NULL, "
+                + "payload BYTEA NOT NULL, "
+                + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                + "PRIMARY KEY (conversation_id, seq))");
+    }
+
+    private record Row(long seq, byte[] payload) {
+    }
+}
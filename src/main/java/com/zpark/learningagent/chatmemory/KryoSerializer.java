@@ -0,0 +1,114 @@
+package com.zpark.learningagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * 作用：基于对象池的 Kryo 序列化工具
+ * Kryo 实例不是线程安全的，不能在多个请求之间共享同一个实例；
+ * 这里用 Kryo 自带的 Pool 复用实例，每次序列化借出一个、用完归还。
+ * 常用的消息类按固定 ID 注册，写出时只记一个变长整数而不是完整类名；
+ * 未注册的类（如元数据里的自定义值）仍按类名写出，旧数据里按类名记录的对象也能照常读取。
+ */
+public final class KryoSerializer {
+
+    // 池中最多缓存的 Kryo 实例数，超出的实例用完直接丢弃
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 4;
+
+    // 注册类的起始 ID，避开 Kryo 内置的基本类型注册；已发布的 ID 不能修改，新增类只能追加
+    private static final int FIRST_REGISTRATION_ID = 100;
+
+    private static final Pool<Kryo> KRYO_POOL = new Pool<>(true, false, MAX_POOLED) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            // 允许未注册的类
+            kryo.setRegistrationRequired(false);
+            //设置实例化策略
+            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+            registerMessageClasses(kryo);
+            return kryo;
+        }
+    };
+
+    private KryoSerializer() {
+    }
+
+    private static void registerMessageClasses(Kryo kryo) {
+        int id = FIRST_REGISTRATION_ID;
+        kryo.register(ArrayList.class, id++);
+        kryo.register(HashMap.class, id++);
+        kryo.register(LinkedHashMap.class, id++);
+        kryo.register(MessageType.class, id++);
+        kryo.register(UserMessage.class, id++);
+        kryo.register(AssistantMessage.class, id++);
+        kryo.register(AssistantMessage.ToolCall.class, id++);
+        kryo.register(SystemMessage.class, id++);
+        kryo.register(ToolResponseMessage.class, id++);
+        kryo.register(ToolResponseMessage.ToolResponse.class, id);
+    }
+
+    /**
+     * 序列化对象（带类型信息）为字节数组
+     */
+    public static byte[] serialize(Object object) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Output output = new Output(256, -1)) {
+            kryo.writeClassAndObject(output, object);
+            return output.toBytes();
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 从字节数组反序列化对象
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deserialize(byte[] bytes) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Input input = new Input(bytes)) {
+            return (T) kryo.readClassAndObject(input);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 把指定类型的对象写入输出流（不带类型信息）
+     */
+    public static void writeObject(OutputStream outputStream, Object object) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Output output = new Output(outputStream)) {
+            kryo.writeObject(output, object);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 从输入流读取指定类型的对象
+     */
+    public static <T> T readObject(InputStream inputStream, Class<T> type) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try (Input input = new Input(inputStream)) {
+            return kryo.readObject(input, type);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+}
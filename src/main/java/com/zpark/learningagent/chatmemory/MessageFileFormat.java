@@ -0,0 +1,198 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 作用：会话文件（.kryo）的 v2 存储格式
+ * 文件头是 4 字节魔数 "LAM2" 加 1 字节版本号，之后每条消息一帧：
+ * [4字节存储长度][4字节原始长度][1字节压缩方式][4字节 CRC32][数据]。
+ * 数据是注册类 ID 编码的 Kryo 字节，超过阈值且压缩后更小时用 Deflate 压缩；
+ * CRC 覆盖帧内实际存储的数据。文件总是经临时文件原子替换写出，正常情况下不会出现残缺的帧，
+ * 所以读取时遇到校验失败、长度异常或不完整的帧都按文件损坏抛出 IOException，
+ * 由调用方拒绝读写该会话并保留原文件，而不是截断后返回前面的消息、下次保存时覆盖掉后面的历史。
+ * 不以魔数开头的文件按 v1 格式（整个 ArrayList 的 Kryo 数据）读取。
+ */
+final class MessageFileFormat {
+
+    private static final byte[] MAGIC = {'L', 'A', 'M', '2'};
+
+    static final byte VERSION = 2;
+
+    private static final byte CODEC_NONE = 0;
+
+    private static final byte CODEC_DEFLATE = 1;
+
+    // 小于该字节数的消息压缩收益很小，直接原样存储
+    private static final int COMPRESS_MIN_BYTES = 256;
+
+    // 单帧允许的最大长度，用来识别损坏的帧头
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private MessageFileFormat() {
+    }
+
+    /**
+     * 判断文件是否已经是 v2 格式
+     */
+    static boolean isV2(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(MAGIC.length + 1);
+            return header.length == MAGIC.length + 1
+                    && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                    && header[MAGIC.length] == VERSION;
+        }
+    }
+
+    /**
+     * 读取会话文件，自动识别 v1 / v2 格式
+     *
+     * @throws IOException 读取失败或文件已损坏
+     */
+    @SuppressWarnings("unchecked")
+    static List<Message> read(Path file) throws IOException {
+        if (!isV2(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                return KryoSerializer.readObject(in, ArrayList.class);
+            }
+        }
+        List<Message> messages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.skipNBytes(MAGIC.length + 1);
+            while (true) {
+                int storedLength;
+                try {
+                    storedLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                messages.add(readFrame(in, storedLength, file, messages.size()));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 以 v2 格式写出整个会话
+     */
+    static void write(OutputStream outputStream, List<Message> messages, boolean compress) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        for (Message message : messages) {
+            writeFrame(out, message, compress);
+        }
+        out.flush();
+    }
+
+    private static void writeFrame(DataOutputStream out, Message message, boolean compress) throws IOException {
+        byte[] raw = KryoSerializer.serialize(message);
+        byte codec = CODEC_NONE;
+        byte[] stored = raw;
+        if (compress && raw.length >= COMPRESS_MIN_BYTES) {
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length) {
+                codec = CODEC_DEFLATE;
+                stored = deflated;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        out.writeInt(stored.length);
+        out.writeInt(raw.length);
+        out.writeByte(codec);
+        out.writeInt((int) crc.getValue());
+        out.write(stored);
+    }
+
+    /**
+     * 读取一帧，帧损坏或不完整时抛出 IOException
+     */
+    private static Message readFrame(DataInputStream in, int storedLength, Path file, int index) throws IOException {
+        try {
+            int rawLength = in.readInt();
+            byte codec = in.readByte();
+            int expectedCrc = in.readInt();
+            if (storedLength < 0 || storedLength > MAX_FRAME_BYTES || rawLength < 0 || rawLength > MAX_FRAME_BYTES) {
+                throw corrupted(file, index, "帧长度异常", null);
+            }
+            byte[] stored = new byte[storedLength];
+            in.readFully(stored);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw corrupted(file, index, "帧校验失败", null);
+            }
+            byte[] raw = switch (codec) {
+                case CODEC_NONE -> stored;
+                case CODEC_DEFLATE -> inflate(stored, rawLength);
+                default -> throw new DataFormatException("未知的压缩方式: " + codec);
+            };
+            return KryoSerializer.deserialize(raw);
+        } catch (EOFException e) {
+            throw corrupted(file, index, "帧不完整", e);
+        } catch (DataFormatException e) {
+            throw corrupted(file, index, "帧解压失败", e);
+        }
+    }
+
+    private static IOException corrupted(Path file, int index, String reason, Exception cause) {
+        return new IOException("会话文件已损坏（第 " + index + " 条消息" + reason + "）: " + file, cause);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] stored, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, offset, rawLength - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != rawLength) {
+                throw new DataFormatException("解压后长度不符: " + offset + " != " + rawLength);
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+}
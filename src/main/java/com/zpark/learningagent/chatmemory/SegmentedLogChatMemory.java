@@ -0,0 +1,755 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+/**
+ * 作用：基于追加日志的会话内存
+ * 每个会话一个目录（按会话 ID 哈希分片到两级子目录下），目录下按起始序号命名的段文件（如 00000000000000000000.log），
+ * 每条消息是一条 [4字节长度][Kryo数据] 的帧记录，写入只追加到当前活跃段，
+ * 段写满后滚动到新段，后台线程定期合并已封存的段并丢弃超出保留条数的旧消息。
+ * 每个段配一个同名 .idx 偏移索引（每条记录 8 字节的文件位置），
+ * 读取最近 N 条时通过内存映射的索引直接定位，只解码需要的记录。
+ * 同一会话的写入与合并通过分段读写锁串行化，读取之间可以并发。
+ * 合并结果先写入临时文件并 fsync，再写入提交标记，之后才替换和删除旧段；
+ * 启动时发现提交标记就把未完成的替换做完，没有标记的临时文件才丢弃，崩溃不会丢失已封存的历史。
+ */
+public class SegmentedLogChatMemory implements ChatMemory, SweepableChatMemory, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedLogChatMemory.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final String COMPACTING_SUFFIX = ".compacting";
+
+    // 合并提交标记：第一行为合并后的段文件名（全部过期时为空），其余行为被替换的旧段文件名
+    private static final String COMPACTION_MARKER = "compaction.commit";
+
+    // 会话元数据超过该时间未被访问时从内存中移除，再次访问时从磁盘重新加载
+    private static final long METADATA_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // 帧头（记录长度）字节数
+    private static final int FRAME_HEADER_BYTES = 4;
+
+    // 每条索引项（记录在段文件中的位置）字节数
+    private static final int INDEX_ENTRY_BYTES = 8;
+
+    private final Path baseDir;
+
+    // 单个段文件的最大字节数，超过后滚动到新段
+    private final long segmentMaxBytes;
+
+    // 已封存段达到该数量时才触发合并
+    private final int compactionMinSegments;
+
+    // 每个会话最多保留的消息条数，0 表示不限制
+    private final int retainMessages;
+
+    private final Map<String, ConversationLog> logs = new ConcurrentHashMap<>();
+
+    // 按会话分段的读写锁，会话元数据和段文件的修改都在写锁内完成
+    private final StripedLocks locks = new StripedLocks(64);
+
+    private final ScheduledExecutorService compactor;
+
+    public SegmentedLogChatMemory(String dir) {
+        this(dir, 4 * 1024 * 1024, 4, 0, 60);
+    }
+
+    /**
+     * @param dir                      日志根目录
+     * @param segmentMaxBytes          单个段的最大字节数
+     * @param compactionMinSegments    触发合并的已封存段数量
+     * @param retainMessages           每个会话保留的消息条数，0 表示全部保留
+     * @param compactionIntervalSeconds 后台合并的执行间隔（秒），小于等于 0 时不启动后台合并
+     */
+    public SegmentedLogChatMemory(String dir, long segmentMaxBytes, int compactionMinSegments,
+                                  int retainMessages, long compactionIntervalSeconds) {
+        this.baseDir = Paths.get(dir);
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.compactionMinSegments = Math.max(2, compactionMinSegments);
+        this.retainMessages = Math.max(0, retainMessages);
+        try {
+            Files.createDirectories(baseDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建会话日志目录: " + dir, e);
+        }
+        if (compactionIntervalSeconds > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "chat-memory-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.compactor.scheduleWithFixedDelay(this::compactAll,
+                    compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        int batchBytes = 0;
+        for (Message message : messages) {
+            byte[] payload = KryoSerializer.serialize(message);
+            payloads.add(payload);
+            batchBytes += FRAME_HEADER_BYTES + payload.length;
+        }
+        Lock lock = locks.get(conversationId).writeLock();
+        lock.lock();
+        try {
+            ConversationLog conversationLog = getOrLoadLog(conversationId);
+            Segment active = null;
+            try {
+                active = conversationLog.activeSegment();
+                if (active == null || (active.count > 0 && active.size + batchBytes > segmentMaxBytes)) {
+                    active = conversationLog.roll();
+                }
+                ByteArrayOutputStream frames = new ByteArrayOutputStream(batchBytes);
+                ByteBuffer index = ByteBuffer.allocate(payloads.size() * INDEX_ENTRY_BYTES);
+                long position = active.size;
+                for (byte[] payload : payloads) {
+                    index.putLong(position);
+                    writeFrame(frames, payload);
+                    position += FRAME_HEADER_BYTES + payload.length;
+                }
+                // 先写数据再写索引，崩溃时索引只会比数据短，加载时可以检测并重建
+                append(active.path, frames.toByteArray());
+                append(active.indexPath, index.array());
+                active.size = position;
+                active.count += payloads.size();
+                conversationLog.nextOffset += payloads.size();
+            } catch (IOException e) {
+                if (active != null) {
+                    rollbackAppend(conversationLog, active);
+                }
+                throw new UncheckedIOException("追加会话日志失败, conversationId=" + conversationId, e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 追加失败时把段文件和索引截回追加前的长度，保证内存中的元数据仍与磁盘一致；
+     * 截断也失败时丢弃缓存的元数据，下次访问从磁盘重新加载（必要时重建索引）
+     */
+    private void rollbackAppend(ConversationLog conversationLog, Segment active) {
+        try {
+            truncate(active.path, active.size);
+            truncate(active.indexPath, (long) active.count * INDEX_ENTRY_BYTES);
+        } catch (IOException e) {
+            log.error("回滚会话日志追加失败, segment={}", active.path, e);
+            logs.remove(conversationLog.conversationId, conversationLog);
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        Lock lock = locks.get(conversationId).readLock();
+        lock.lock();
+        try {
+            ConversationLog conversationLog = getOrLoadLog(conversationId);
+            long start = Math.max(conversationLog.firstOffset(), conversationLog.nextOffset - Math.max(0, lastN));
+            List<Message> messages = new ArrayList<>();
+            for (Segment segment : conversationLog.segments) {
+                if (segment.baseOffset + segment.count <= start) {
+                    continue;
+                }
+                try {
+                    readSegment(segment, start, messages);
+                } catch (IOException | BufferUnderflowException e) {
+                    log.error("读取会话日志失败, segment={}", segment.path, e);
+                }
+            }
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Lock lock = locks.get(conversationId).writeLock();
+        lock.lock();
+        try {
+            ConversationLog conversationLog = getOrLoadLog(conversationId);
+            try {
+                deleteRecursively(conversationLog.dir);
+            } catch (IOException e) {
+                log.error("删除会话日志失败, conversationId={}", conversationId, e);
+            }
+            conversationLog.segments.clear();
+            conversationLog.nextOffset = 0;
+            logs.remove(conversationId, conversationLog);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除空闲过期的会话目录；超过配额的会话从最早的已封存段开始删除（活跃段始终保留）
+     */
+    @Override
+    public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        int trimmed = 0;
+        Set<String> swept = new HashSet<>();
+        List<Path> conversationDirs;
+        try (Stream<Path> paths = Files.walk(baseDir, ConversationPaths.SHARD_DEPTH + 1)) {
+            conversationDirs = paths
+                    .filter(path -> baseDir.relativize(path).getNameCount() == ConversationPaths.SHARD_DEPTH + 1)
+                    .filter(Files::isDirectory)
+                    .toList();
+        } catch (IOException e) {
+            log.error("扫描会话日志目录失败: {}", baseDir, e);
+            return swept;
+        }
+        for (Path dir : conversationDirs) {
+            String conversationId = dir.getFileName().toString();
+            Lock lock = locks.get(conversationId).writeLock();
+            lock.lock();
+            try {
+                long lastModified = 0;
+                long totalBytes = 0;
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : files.toList()) {
+                        lastModified = Math.max(lastModified, Files.getLastModifiedTime(file).toMillis());
+                        if (file.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+                            totalBytes += Files.size(file);
+                        }
+                    }
+                }
+                if (idleTtl != null && !idleTtl.isZero() && now - lastModified > idleTtl.toMillis()) {
+                    deleteRecursively(dir);
+                    logs.remove(conversationId);
+                    expired++;
+                    swept.add(conversationId);
+                } else if (maxBytesPerConversation > 0 && totalBytes > maxBytesPerConversation) {
+                    ConversationLog conversationLog = getOrLoadLog(conversationId);
+                    while (conversationLog.segments.size() > 1 && totalBytes > maxBytesPerConversation) {
+                        Segment oldest = conversationLog.segments.remove(0);
+                        Files.deleteIfExists(oldest.path);
+                        Files.deleteIfExists(oldest.indexPath);
+                        totalBytes -= oldest.size;
+                    }
+                    trimmed++;
+                    swept.add(conversationId);
+                }
+            } catch (IOException e) {
+                log.warn("清理会话日志失败, conversationId={}", conversationId, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        evictIdleLogs();
+        if (expired > 0 || trimmed > 0) {
+            log.info("会话日志清理完成：删除过期会话 {} 个，裁剪超额会话 {} 个", expired, trimmed);
+        }
+        return swept;
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+    }
+
+    /**
+     * 合并所有会话的已封存段
+     */
+    void compactAll() {
+        for (Map.Entry<String, ConversationLog> entry : logs.entrySet()) {
+            try {
+                compact(entry.getValue());
+            } catch (Exception e) {
+                log.warn("合并会话日志失败, conversationId={}", entry.getKey(), e);
+            }
+        }
+        evictIdleLogs();
+    }
+
+    /**
+     * 移除长时间未访问的会话元数据，避免 logs 随访问过的会话总数无限增长
+     */
+    void evictIdleLogs() {
+        long threshold = System.currentTimeMillis() - METADATA_IDLE_MILLIS;
+        for (Map.Entry<String, ConversationLog> entry : logs.entrySet()) {
+            if (entry.getValue().lastAccess >= threshold) {
+                continue;
+            }
+            Lock lock = locks.get(entry.getKey()).writeLock();
+            lock.lock();
+            try {
+                if (entry.getValue().lastAccess < threshold) {
+                    logs.remove(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    int loadedConversations() {
+        return logs.size();
+    }
+
+    /**
+     * 把除活跃段以外的段合并成一个段，同时丢弃超出保留条数的旧消息。
+     * 已封存段是不可变的，所以复制过程不需要持有会话锁，只在替换文件时加锁。
+     */
+    private void compact(ConversationLog conversationLog) throws IOException {
+        List<Segment> sealed;
+        long retainFrom;
+        Lock lock = locks.get(conversationLog.conversationId).writeLock();
+        lock.lock();
+        try {
+            int sealedCount = conversationLog.segments.size() - 1;
+            retainFrom = retainMessages > 0 ? Math.max(0, conversationLog.nextOffset - retainMessages) : 0;
+            boolean hasExpired = sealedCount > 0 && conversationLog.segments.get(0).baseOffset < retainFrom;
+            if (sealedCount < compactionMinSegments && !hasExpired) {
+                return;
+            }
+            sealed = new ArrayList<>(conversationLog.segments.subList(0, sealedCount));
+        } finally {
+            lock.unlock();
+        }
+
+        long mergedBase = Math.max(sealed.get(0).baseOffset, retainFrom);
+        Path target = conversationLog.dir.resolve(segmentFileName(mergedBase));
+        Path targetIndex = indexPathOf(target);
+        Path tmp = compactingPathOf(target);
+        Path tmpIndex = compactingPathOf(targetIndex);
+        long mergedSize = 0;
+        int mergedCount = 0;
+        try (OutputStream out = Files.newOutputStream(tmp);
+             DataOutputStream indexOut = new DataOutputStream(Files.newOutputStream(tmpIndex))) {
+            for (Segment segment : sealed) {
+                try (DataInputStream in = openSegment(segment.path)) {
+                    long offset = segment.baseOffset;
+                    for (int i = 0; i < segment.count; i++, offset++) {
+                        int length = in.readInt();
+                        if (offset < retainFrom) {
+                            in.skipNBytes(length);
+                            continue;
+                        }
+                        byte[] payload = in.readNBytes(length);
+                        indexOut.writeLong(mergedSize);
+                        writeFrame(out, payload);
+                        mergedSize += FRAME_HEADER_BYTES + length;
+                        mergedCount++;
+                    }
+                }
+            }
+        }
+        if (mergedCount == 0) {
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(tmpIndex);
+        } else {
+            force(tmp);
+            force(tmpIndex);
+        }
+
+        lock.lock();
+        try {
+            // 合并期间会话被清空或结构已变化，放弃本次合并
+            if (logs.get(conversationLog.conversationId) != conversationLog
+                    || conversationLog.segments.size() <= sealed.size()
+                    || !conversationLog.segments.subList(0, sealed.size()).equals(sealed)) {
+                Files.deleteIfExists(tmp);
+                Files.deleteIfExists(tmpIndex);
+                return;
+            }
+            // 提交标记落盘后合并即生效，之后的替换和删除在崩溃后由 loadLog 重做
+            List<String> marker = new ArrayList<>();
+            marker.add(mergedCount > 0 ? target.getFileName().toString() : "");
+            for (Segment segment : sealed) {
+                marker.add(segment.path.getFileName().toString());
+            }
+            writeCompactionMarker(conversationLog.dir, marker);
+            try {
+                finishCompaction(conversationLog.dir);
+            } catch (IOException e) {
+                // 磁盘上的段已经与内存不一致，丢弃元数据，下次访问时按提交标记恢复
+                logs.remove(conversationLog.conversationId, conversationLog);
+                throw e;
+            }
+            List<Segment> remaining = new ArrayList<>(conversationLog.segments.subList(sealed.size(), conversationLog.segments.size()));
+            conversationLog.segments.clear();
+            if (mergedCount > 0) {
+                conversationLog.segments.add(new Segment(mergedBase, target, mergedSize, mergedCount));
+            }
+            conversationLog.segments.addAll(remaining);
+            log.debug("会话 {} 合并了 {} 个段，保留 {} 条消息", conversationLog.conversationId, sealed.size(), mergedCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 原子写入提交标记：先写临时文件并 fsync，再重命名并 fsync 目录
+     */
+    private static void writeCompactionMarker(Path dir, List<String> lines) throws IOException {
+        Path marker = dir.resolve(COMPACTION_MARKER);
+        Path tmp = dir.resolve(COMPACTION_MARKER + COMPACTING_SUFFIX);
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        force(tmp);
+        Files.move(tmp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        GroupCommitWriter.forceDirectory(dir);
+    }
+
+    /**
+     * 按提交标记完成合并：把临时文件移动到位，删除被替换的旧段，最后删除标记。
+     * 每一步都可以重复执行，崩溃后重新调用即可。
+     */
+    private static void finishCompaction(Path dir) throws IOException {
+        Path marker = dir.resolve(COMPACTION_MARKER);
+        List<String> lines = Files.readAllLines(marker, StandardCharsets.UTF_8);
+        String targetName = lines.isEmpty() ? "" : lines.get(0);
+        if (!targetName.isEmpty()) {
+            Path target = dir.resolve(targetName);
+            moveIfExists(compactingPathOf(indexPathOf(target)), indexPathOf(target));
+            moveIfExists(compactingPathOf(target), target);
+            GroupCommitWriter.forceDirectory(dir);
+        }
+        for (String name : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            // 合并结果与某个旧段同名时已经被上面的原子替换覆盖
+            if (!name.isEmpty() && !name.equals(targetName)) {
+                Path segment = dir.resolve(name);
+                Files.deleteIfExists(segment);
+                Files.deleteIfExists(indexPathOf(segment));
+            }
+        }
+        GroupCommitWriter.forceDirectory(dir);
+        Files.deleteIfExists(marker);
+        GroupCommitWriter.forceDirectory(dir);
+    }
+
+    private static void moveIfExists(Path source, Path target) throws IOException {
+        if (Files.exists(source)) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static Path compactingPathOf(Path path) {
+        return path.resolveSibling(path.getFileName() + COMPACTING_SUFFIX);
+    }
+
+    /**
+     * 获取会话日志元数据，调用方必须持有该会话的锁，
+     * 这样 clear 移除的旧元数据不会被并发的写入继续使用
+     */
+    private ConversationLog getOrLoadLog(String conversationId) {
+        ConversationLog conversationLog = logs.computeIfAbsent(conversationId, this::loadLog);
+        conversationLog.lastAccess = System.currentTimeMillis();
+        return conversationLog;
+    }
+
+    /**
+     * 扫描会话目录，恢复段列表
+     */
+    private ConversationLog loadLog(String conversationId) {
+        Path dir = ConversationPaths.shardDir(baseDir, conversationId).resolve(conversationId);
+        ConversationLog conversationLog = new ConversationLog(conversationId, dir);
+        if (!Files.isDirectory(dir)) {
+            // 兼容旧的平铺目录：首次访问时迁移到分片目录
+            Path legacy = baseDir.resolve(conversationId);
+            if (!Files.isDirectory(legacy)) {
+                return conversationLog;
+            }
+            try {
+                Files.createDirectories(dir.getParent());
+                Files.move(legacy, dir);
+            } catch (IOException e) {
+                log.error("迁移会话日志目录失败, conversationId={}", conversationId, e);
+                return conversationLog;
+            }
+        }
+        try {
+            // 上次合并已经提交但没有完成替换，先把它做完
+            if (Files.exists(dir.resolve(COMPACTION_MARKER))) {
+                log.info("恢复未完成的会话日志合并, conversationId={}", conversationId);
+                finishCompaction(dir);
+            }
+        } catch (IOException e) {
+            log.error("恢复会话日志合并失败, conversationId={}", conversationId, e);
+        }
+        try (Stream<Path> files = Files.list(conversationLog.dir)) {
+            List<Path> allFiles = files.toList();
+            // 没有提交标记的临时文件属于未提交的合并，旧段仍然完整，直接丢弃
+            for (Path path : allFiles) {
+                if (path.getFileName().toString().endsWith(COMPACTING_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            List<Path> segmentFiles = allFiles.stream()
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .toList();
+            for (Path path : segmentFiles) {
+                String name = path.getFileName().toString();
+                long baseOffset = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = loadSegment(baseOffset, path);
+                conversationLog.segments.add(segment);
+                conversationLog.nextOffset = segment.baseOffset + segment.count;
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("加载会话日志失败, conversationId={}", conversationId, e);
+        }
+        return conversationLog;
+    }
+
+    /**
+     * 索引与数据一致时直接用索引恢复记录数，否则扫描段文件重建索引
+     */
+    private Segment loadSegment(long baseOffset, Path path) throws IOException {
+        Path indexPath = indexPathOf(path);
+        long fileSize = Files.size(path);
+        if (Files.exists(indexPath)) {
+            long indexSize = Files.size(indexPath);
+            if (indexSize % INDEX_ENTRY_BYTES == 0 && isIndexConsistent(path, indexPath, indexSize, fileSize)) {
+                return new Segment(baseOffset, path, fileSize, (int) (indexSize / INDEX_ENTRY_BYTES));
+            }
+        }
+        return rebuildSegment(baseOffset, path);
+    }
+
+    /**
+     * 检查索引最后一项指向的记录是否恰好结束在段文件末尾
+     */
+    private static boolean isIndexConsistent(Path path, Path indexPath, long indexSize, long fileSize) throws IOException {
+        if (indexSize == 0) {
+            return fileSize == 0;
+        }
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ);
+             FileChannel data = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            readFully(index, entry, indexSize - INDEX_ENTRY_BYTES);
+            long lastPosition = entry.flip().getLong();
+            if (lastPosition < 0 || lastPosition + FRAME_HEADER_BYTES > fileSize) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+            readFully(data, header, lastPosition);
+            return lastPosition + FRAME_HEADER_BYTES + header.flip().getInt() == fileSize;
+        }
+    }
+
+    /**
+     * 逐帧扫描段文件并重写索引；末尾不完整的帧（崩溃时写了一半）会被截断
+     */
+    private Segment rebuildSegment(long baseOffset, Path path) throws IOException {
+        long fileSize = Files.size(path);
+        long position = 0;
+        int count = 0;
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataInputStream in = openSegment(path)) {
+            DataOutputStream indexOut = new DataOutputStream(index);
+            while (position + FRAME_HEADER_BYTES <= fileSize) {
+                int length = in.readInt();
+                if (length < 0 || position + FRAME_HEADER_BYTES + length > fileSize) {
+                    break;
+                }
+                in.skipNBytes(length);
+                indexOut.writeLong(position);
+                position += FRAME_HEADER_BYTES + length;
+                count++;
+            }
+        }
+        if (position < fileSize) {
+            log.warn("段文件 {} 末尾存在不完整记录，截断到 {} 字节", path, position);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+        Files.write(indexPathOf(path), index.toByteArray());
+        return new Segment(baseOffset, path, position, count);
+    }
+
+    /**
+     * 通过索引定位到起始记录，一次读出段尾部并只解码 start 之后的记录
+     */
+    private void readSegment(Segment segment, long start, List<Message> messages) throws IOException {
+        int first = (int) Math.max(0, start - segment.baseOffset);
+        long position = recordPosition(segment, first);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (segment.size - position));
+        try (FileChannel data = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            readFully(data, buffer, position);
+        }
+        buffer.flip();
+        for (int i = first; i < segment.count; i++) {
+            byte[] payload = new byte[buffer.getInt()];
+            buffer.get(payload);
+            messages.add(KryoSerializer.deserialize(payload));
+        }
+    }
+
+    private static long recordPosition(Segment segment, int record) throws IOException {
+        if (record == 0) {
+            return 0;
+        }
+        try (FileChannel index = FileChannel.open(segment.indexPath, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) segment.count * INDEX_ENTRY_BYTES);
+            return mapped.getLong(record * INDEX_ENTRY_BYTES);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void append(Path path, byte[] bytes) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(bytes);
+        }
+    }
+
+    private static void truncate(Path path, long size) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+        }
+    }
+
+    private static DataInputStream openSegment(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+    }
+
+    private static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.flush();
+    }
+
+    private static String segmentFileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SEGMENT_SUFFIX);
+    }
+
+    private static Path indexPathOf(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * 单个会话的日志元数据
+     */
+    private static final class ConversationLog {
+        private final String conversationId;
+        private final Path dir;
+        private final List<Segment> segments = new ArrayList<>();
+        // 下一条消息的序号
+        private long nextOffset;
+        // 最近一次访问时间，用于回收空闲的元数据
+        private volatile long lastAccess;
+
+        private ConversationLog(String conversationId, Path dir) {
+            this.conversationId = conversationId;
+            this.dir = dir;
+        }
+
+        private Segment activeSegment() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+
+        private long firstOffset() {
+            return segments.isEmpty() ? nextOffset : segments.get(0).baseOffset;
+        }
+
+        private Segment roll() throws IOException {
+            Files.createDirectories(dir);
+            Segment segment = new Segment(nextOffset, dir.resolve(segmentFileName(nextOffset)), 0, 0);
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    /**
+     * 段文件元数据
+     */
+    private static final class Segment {
+        private final long baseOffset;
+        private final Path path;
+        private final Path indexPath;
+        private long size;
+        private int count;
+
+        private Segment(long baseOffset, Path path, long size, int count) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.indexPath = indexPathOf(path);
+            this.size = size;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.zpark.learningagent.chatmemory;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 作用：按会话 ID 分段的读写锁
+ * 同一个会话总是映射到同一把锁，保证对同一会话的读-改-写串行执行；
+ * 不同会话大概率落在不同的锁上，可以在多核上并发持久化。
+ * 锁的数量固定，不会随会话数量增长。
+ */
+public final class StripedLocks {
+
+    private final ReadWriteLock[] stripes;
+
+    private final int mask;
+
+    public StripedLocks(int stripes) {
+        // 取不小于 stripes 的 2 的幂，便于用位运算取模
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 获取会话对应的读写锁
+     */
+    public ReadWriteLock get(String conversationId) {
+        int hash = conversationId.hashCode();
+        // 扰动高位，避免相近的 ID 集中到同一段
+        hash ^= (hash >>> 16);
+        return stripes[hash & mask];
+    }
+}
@@ -0,0 +1,360 @@
+package com.zpark.learningagent.chatmemory;
+
+import com.zpark.learningagent.utils.TokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 作用：按 token 预算压缩历史的会话内存装饰器
+ * 记录每条未摘要消息的 token 数，超过预算后在后台线程里把较早的完整轮次
+ * 与已有摘要合并成新的滚动摘要；读取时返回 “摘要 + 预算内的最近消息”，
+ * 既保持提示词短小，又不会丢掉长程上下文。摘要生成不在请求路径上。
+ * 摘要作为一条带标记的消息追加到底层存储，标记中记录它之前还有几条消息没有被摘要，
+ * 重启或状态被回收后从底层历史中找到最新的标记即可恢复，内存中的状态只是缓存，按会话数上限回收。
+ */
+public class SummarizingChatMemory implements ChatMemory, SweepableChatMemory, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SummarizingChatMemory.class);
+
+    private static final String SUMMARY_PREFIX = "【之前对话的摘要】";
+
+    // 持久化摘要的标记前缀，格式为 前缀 + 标记之前未摘要的消息条数 + 换行 + 摘要
+    static final String SUMMARY_MARKER = "【会话摘要标记】";
+
+    // 最近访问过的状态不回收，避免与正在进行的读写交错
+    private static final long EVICT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String SUMMARY_SYSTEM_PROMPT = """
+            你是对话记录整理助手。请把“已有摘要”和“新增对话”合并成一份简洁的中文摘要，
+            保留学习者的身份、学习目标、当前水平、可用时间、已经给出的建议和尚未解决的问题，
+            不要编造内容，只输出摘要本身，不超过 %d 字。
+            """;
+
+    private final ChatMemory delegate;
+
+    private final ChatClient chatClient;
+
+    // 返回给模型的摘要 + 最近消息的 token 上限
+    private final int tokenBudget;
+
+    // 会话首次被访问时，从底层读取的历史消息条数
+    private final int historyWindow;
+
+    // 内存中最多保留的会话状态数
+    private final int maxConversations;
+
+    private final ExecutorService summarizer;
+
+    private final Map<String, SummaryState> states = new ConcurrentHashMap<>();
+
+    public SummarizingChatMemory(ChatMemory delegate, ChatModel chatModel, int tokenBudget, int historyWindow) {
+        this(delegate, chatModel, tokenBudget, historyWindow, 10_000);
+    }
+
+    public SummarizingChatMemory(ChatMemory delegate, ChatModel chatModel, int tokenBudget, int historyWindow,
+                                 int maxConversations) {
+        this.delegate = delegate;
+        this.chatClient = ChatClient.builder(chatModel).build();
+        this.tokenBudget = Math.max(200, tokenBudget);
+        this.historyWindow = Math.max(1, historyWindow);
+        this.maxConversations = Math.max(1, maxConversations);
+        this.summarizer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-memory-summarizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        SummaryState state = getState(conversationId);
+        boolean needSummary;
+        synchronized (state) {
+            delegate.add(conversationId, messages);
+            for (Message message : messages) {
+                int tokens = TokenEstimator.estimate(message);
+                state.tokenCounts.addLast(tokens);
+                state.unsummarizedTokens += tokens;
+            }
+            state.storedTail += messages.size();
+            needSummary = state.unsummarizedTokens > tokenBudget && !state.summarizing;
+            if (needSummary) {
+                state.summarizing = true;
+            }
+        }
+        if (needSummary) {
+            summarizer.execute(() -> summarize(conversationId, state));
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        SummaryState state = getState(conversationId);
+        String summary;
+        List<Message> recent;
+        synchronized (state) {
+            summary = state.summary;
+            recent = readUnsummarized(conversationId, state);
+        }
+        recent = recent.subList(Math.max(0, recent.size() - Math.max(0, lastN)), recent.size());
+        int budget = tokenBudget - (summary == null ? 0 : TokenEstimator.estimate(summary));
+        // 从新到旧挑选预算内的消息，至少保留最新的一条
+        int from = recent.size();
+        int used = 0;
+        while (from > 0) {
+            int tokens = TokenEstimator.estimate(recent.get(from - 1));
+            if (used + tokens > budget && from < recent.size()) {
+                break;
+            }
+            used += tokens;
+            from--;
+        }
+        List<Message> result = new ArrayList<>(recent.size() - from + 1);
+        if (summary != null) {
+            result.add(new AssistantMessage(SUMMARY_PREFIX + summary));
+        }
+        result.addAll(recent.subList(from, recent.size()));
+        return result;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        SummaryState state = states.remove(conversationId);
+        if (state != null) {
+            synchronized (state) {
+                state.summary = null;
+                state.tokenCounts.clear();
+                state.unsummarizedTokens = 0;
+                state.storedTail = 0;
+            }
+        }
+        delegate.clear(conversationId);
+    }
+
+    /**
+     * 转发给底层清理，被删除或裁剪的会话丢弃内存中的摘要状态，下次访问时按底层剩下的历史重新恢复
+     */
+    @Override
+    public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+        if (!(delegate instanceof SweepableChatMemory sweepable)) {
+            throw new IllegalStateException("底层会话存储不支持清理: " + delegate.getClass().getName());
+        }
+        Set<String> swept = sweepable.sweep(idleTtl, maxBytesPerConversation);
+        swept.forEach(states::remove);
+        return swept;
+    }
+
+    @Override
+    public void close() throws IOException {
+        summarizer.shutdown();
+        try {
+            summarizer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 获取会话的摘要状态，首次访问时从底层历史恢复摘要和未摘要消息的 token 计数
+     */
+    private SummaryState getState(String conversationId) {
+        SummaryState state = states.computeIfAbsent(conversationId, this::loadState);
+        state.lastAccess = System.currentTimeMillis();
+        if (states.size() > maxConversations) {
+            evictIdleStates();
+        }
+        return state;
+    }
+
+    private SummaryState loadState(String conversationId) {
+        SummaryState state = new SummaryState();
+        List<Message> stored = delegate.get(conversationId, historyWindow);
+        int start = 0;
+        for (int i = stored.size() - 1; i >= 0; i--) {
+            String text = stored.get(i).getText();
+            if (!isMarker(stored.get(i))) {
+                continue;
+            }
+            int newline = text.indexOf('\n');
+            try {
+                int kept = Integer.parseInt(text.substring(SUMMARY_MARKER.length(), newline));
+                state.summary = text.substring(newline + 1);
+                // 标记之前还有 kept 条未摘要的消息
+                start = i;
+                while (kept > 0 && start > 0) {
+                    start--;
+                    if (!isMarker(stored.get(start))) {
+                        kept--;
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warn("会话 {} 的摘要标记无法解析，忽略", conversationId);
+                continue;
+            }
+            break;
+        }
+        for (Message message : stored.subList(start, stored.size())) {
+            if (!isMarker(message)) {
+                int tokens = TokenEstimator.estimate(message);
+                state.tokenCounts.addLast(tokens);
+                state.unsummarizedTokens += tokens;
+            }
+        }
+        state.storedTail = stored.size() - start;
+        return state;
+    }
+
+    /**
+     * 回收一段时间没有访问、也没有在生成摘要的状态，它们随时可以从底层重新恢复
+     */
+    private void evictIdleStates() {
+        long threshold = System.currentTimeMillis() - EVICT_IDLE_MILLIS;
+        Iterator<Map.Entry<String, SummaryState>> iterator = states.entrySet().iterator();
+        while (states.size() > maxConversations && iterator.hasNext()) {
+            SummaryState state = iterator.next().getValue();
+            synchronized (state) {
+                if (!state.summarizing && state.lastAccess < threshold) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取未摘要的消息（不含摘要标记），调用方持有 state 锁
+     */
+    private List<Message> readUnsummarized(String conversationId, SummaryState state) {
+        if (state.storedTail == 0) {
+            return List.of();
+        }
+        List<Message> messages = new ArrayList<>(state.tokenCounts.size());
+        for (Message message : delegate.get(conversationId, state.storedTail)) {
+            if (!isMarker(message)) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 把最早的若干轮对话折叠进滚动摘要，折叠后未摘要部分不超过预算的一半
+     */
+    private void summarize(String conversationId, SummaryState state) {
+        try {
+            String previous;
+            List<Message> stored;
+            int foldCount = 0;
+            synchronized (state) {
+                previous = state.summary;
+                int remaining = state.unsummarizedTokens;
+                Iterator<Integer> iterator = state.tokenCounts.iterator();
+                while (remaining > tokenBudget / 2 && iterator.hasNext()) {
+                    remaining -= iterator.next();
+                    foldCount++;
+                }
+                stored = foldCount == 0 ? List.of() : delegate.get(conversationId, state.storedTail);
+            }
+            List<Message> unsummarized = new ArrayList<>(stored.size());
+            for (Message message : stored) {
+                if (!isMarker(message)) {
+                    unsummarized.add(message);
+                }
+            }
+            // 只折叠完整的轮次：折叠边界之后的第一条应当是用户消息，并且至少留下最新的一条
+            while (foldCount < unsummarized.size() - 1
+                    && unsummarized.get(foldCount).getMessageType() != MessageType.USER) {
+                foldCount++;
+            }
+            foldCount = Math.min(foldCount, unsummarized.size() - 1);
+            if (foldCount <= 0) {
+                return;
+            }
+            String summary = chatClient.prompt()
+                    .system(String.format(SUMMARY_SYSTEM_PROMPT, tokenBudget / 2))
+                    .user(renderTranscript(previous, unsummarized.subList(0, foldCount)))
+                    .call()
+                    .content();
+            if (summary == null || summary.isBlank()) {
+                return;
+            }
+            // 第一条保留消息在读取结果中的位置，之前的部分（含旧标记）都已经被摘要覆盖
+            Message firstKept = unsummarized.get(foldCount);
+            int firstKeptIndex = 0;
+            while (stored.get(firstKeptIndex) != firstKept) {
+                firstKeptIndex++;
+            }
+            synchronized (state) {
+                state.summary = summary.strip();
+                for (int i = 0; i < foldCount && !state.tokenCounts.isEmpty(); i++) {
+                    state.unsummarizedTokens -= state.tokenCounts.removeFirst();
+                }
+                // 摘要期间新增的消息都追加在读取结果之后
+                delegate.add(conversationId, List.of(new AssistantMessage(
+                        SUMMARY_MARKER + state.tokenCounts.size() + "\n" + state.summary)));
+                state.storedTail = state.storedTail - firstKeptIndex + 1;
+            }
+            log.info("会话 {} 折叠了 {} 条消息到摘要中", conversationId, foldCount);
+        } catch (Exception e) {
+            log.warn("生成会话摘要失败, conversationId={}", conversationId, e);
+        } finally {
+            synchronized (state) {
+                state.summarizing = false;
+            }
+        }
+    }
+
+    private static boolean isMarker(Message message) {
+        String text = message.getText();
+        return message.getMessageType() == MessageType.ASSISTANT && text != null && text.startsWith(SUMMARY_MARKER);
+    }
+
+    private static String renderTranscript(String previous, List<Message> messages) {
+        StringBuilder transcript = new StringBuilder();
+        transcript.append("已有摘要：\n").append(previous == null ? "（无）" : previous).append("\n\n");
+        transcript.append("新增对话：\n");
+        for (Message message : messages) {
+            String role = message.getMessageType() == MessageType.USER ? "用户" : "助手";
+            transcript.append(role).append("：").append(message.getText()).append("\n");
+        }
+        return transcript.toString();
+    }
+
+    /**
+     * 单个会话的摘要状态
+     */
+    private static final class SummaryState {
+        // 当前的滚动摘要
+        private String summary;
+        // 未摘要消息的 token 数，按时间顺序
+        private final Deque<Integer> tokenCounts = new ArrayDeque<>();
+        private int unsummarizedTokens;
+        // 覆盖全部未摘要消息需要从底层读取的条数（包含其中的摘要标记）
+        private int storedTail;
+        private boolean summarizing;
+        private volatile long lastAccess;
+    }
+}
@@ -0,0 +1,20 @@
+package com.zpark.learningagent.chatmemory;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * 支持后台清理的会话存储
+ * 装饰器（缓存、摘要）也实现该接口：先转发给底层存储，再按返回的会话 ID 丢弃自己持有的状态
+ */
+public interface SweepableChatMemory {
+
+    /**
+     * 删除空闲时间超过 idleTtl 的会话，并把超过配额的会话裁剪到配额以内（只删除最早的消息）
+     *
+     * @param idleTtl                 会话空闲过期时间，为 null 或 0 时不按空闲时间清理
+     * @param maxBytesPerConversation 单个会话的字节配额，小于等于 0 时不限制
+     * @return 被删除或裁剪过的会话 ID
+     */
+    Set<String> sweep(Duration idleTtl, long maxBytesPerConversation);
+}
@@ -0,0 +1,114 @@
+package com.zpark.learningagent.config;
+
+import com.zpark.learningagent.agent.AgentExecutionService;
+import com.zpark.learningagent.chatmemory.CachingChatMemory;
+import com.zpark.learningagent.ratelimit.AdmissionLimiter;
+import com.zpark.learningagent.tools.ToolResultCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 指标配置
+ * 把智能体执行服务和工具结果缓存已有的统计信息注册为 Micrometer 指标，按需读取，不增加调用路径上的开销
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder agentExecutorMetrics(AgentExecutionService agentExecutionService) {
+        return registry -> {
+            Gauge.builder("agent.executor.running", agentExecutionService, service -> service.stats().running())
+                    .description("执行服务中正在运行的智能体数")
+                    .register(registry);
+            Gauge.builder("agent.executor.queued", agentExecutionService, service -> service.stats().queued())
+                    .description("执行服务中排队等待的智能体数")
+                    .register(registry);
+            FunctionCounter.builder("agent.executor.rejected", agentExecutionService,
+                            service -> service.stats().rejected())
+                    .description("因容量已满被拒绝的请求数")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder toolCacheMetrics(ToolResultCache toolResultCache) {
+        return registry -> {
+            FunctionCounter.builder("agent.tool.cache.requests", toolResultCache, cache -> cache.stats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("agent.tool.cache.requests", toolResultCache, cache -> cache.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("agent.tool.cache.requests", toolResultCache, cache -> cache.stats().coalesced())
+                    .tag("result", "coalesced")
+                    .register(registry);
+            Gauge.builder("agent.tool.cache.entries", toolResultCache, cache -> cache.stats().entries())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder chatMemoryCacheMetrics(ObjectProvider<CachingChatMemory> chatMemoryCache) {
+        return registry -> chatMemoryCache.ifAvailable(cache -> {
+            FunctionCounter.builder("chat.memory.cache.requests", cache, c -> c.stats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("chat.memory.cache.requests", cache, c -> c.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("chat.memory.cache.evictions", cache, c -> c.stats().evictions())
+                    .register(registry);
+            FunctionCounter.builder("chat.memory.cache.flushed", cache, c -> c.stats().flushedMessages())
+                    .description("写入底层存储的消息数")
+                    .register(registry);
+            Gauge.builder("chat.memory.cache.entries", cache, c -> c.stats().entries())
+                    .register(registry);
+            Gauge.builder("chat.memory.cache.bytes", cache, c -> c.stats().bytes())
+                    .description("缓存消息的估算字节数")
+                    .register(registry);
+            Gauge.builder("chat.memory.cache.dirty", cache, c -> c.stats().dirtyEntries())
+                    .description("还有消息未写入底层存储的会话数")
+                    .register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder rateLimitMetrics(AdmissionLimiter admissionLimiter) {
+        return registry -> {
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter, limiter -> limiter.stats().admitted())
+                    .tag("result", "admitted")
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedUserRate())
+                    .tag("result", AdmissionLimiter.USER_RATE)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedAddressRate())
+                    .tag("result", AdmissionLimiter.ADDRESS_RATE)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedGlobalRate())
+                    .tag("result", AdmissionLimiter.GLOBAL_RATE)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedUserConcurrency())
+                    .tag("result", AdmissionLimiter.USER_CONCURRENCY)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedAddressConcurrency())
+                    .tag("result", AdmissionLimiter.ADDRESS_CONCURRENCY)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.requests", admissionLimiter,
+                            limiter -> limiter.stats().rejectedGlobalConcurrency())
+                    .tag("result", AdmissionLimiter.GLOBAL_CONCURRENCY)
+                    .register(registry);
+            Gauge.builder("llm.admission.in_flight", admissionLimiter, limiter -> limiter.stats().inFlight())
+                    .description("已准入且尚未结束的请求数")
+                    .register(registry);
+        };
+    }
+}
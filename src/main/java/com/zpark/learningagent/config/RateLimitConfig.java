@@ -0,0 +1,25 @@
+package com.zpark.learningagent.config;
+
+import com.zpark.learningagent.ratelimit.AdmissionInterceptor;
+import jakarta.annotation.Resource;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * 限流配置：对调用大模型的接口做准入控制
+ */
+@Configuration
+public class RateLimitConfig implements WebMvcConfigurer {
+
+    @Resource
+    private AdmissionInterceptor admissionInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionInterceptor)
+                .addPathPatterns("/ai/**", "/api/learning-resource/**")
+                // 中断请求用于释放资源，不能被限流挡住
+                .excludePathPatterns("/ai/manus/stop");
+    }
+}
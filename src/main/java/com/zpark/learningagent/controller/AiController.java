@@ -1,13 +1,21 @@
 package com.zpark.learningagent.controller;
 
+import com.zpark.learningagent.agent.AgentExecutionService;
+import com.zpark.learningagent.agent.AgentRejectedException;
+import com.zpark.learningagent.agent.AgentTemplate;
+import com.zpark.learningagent.agent.BaseAgent;
 import com.zpark.learningagent.agent.LearningManus;
+import com.zpark.learningagent.agent.PlanExecuteAgent;
+import com.zpark.learningagent.agent.session.AgentSessionRegistry;
 import com.zpark.learningagent.app.LearningApp;
+import com.zpark.learningagent.utils.SseChunkCoalescer;
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -15,11 +23,11 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 @RequestMapping("/ai")
@@ -29,25 +37,37 @@ public class AiController {
     private LearningApp learningApp;
 
     @Resource
-    private ToolCallback[] allTools;
+    private AgentExecutionService agentExecutionService;
 
+    // 把模型逐块返回的内容合并成较少的 SSE 帧写出
     @Resource
-    private ChatModel dashscopeChatModel;
+    private SseChunkCoalescer sseChunkCoalescer;
+
+    @Resource
+    private AgentTemplate learningManusTemplate;
     
-    // 保存正在运行的Agent实例，用于中断
-    private final Map<String, LearningManus> runningAgents = new ConcurrentHashMap<>();
+    // 正在运行的Agent会话，用于中断；多实例部署时中断请求会被转发到持有会话的节点
+    @Resource
+    private AgentSessionRegistry agentSessionRegistry;
 
     @GetMapping("/love_app/chat/sync")
     public String doChatWithLoveAppSync(String message, String chatId) {
         return learningApp.doChat(message, chatId);
     }
+    /**
+     * 同步对话的非阻塞版本：返回 Mono，等待模型响应期间不占用 Servlet 线程
+     */
+    @GetMapping("/love_app/chat/async")
+    public Mono<String> doChatWithLoveAppAsync(String message, String chatId) {
+        return learningApp.doChatReactive(message, chatId);
+    }
     @GetMapping(value = "/love_app/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> doChatWithLoveAppSSE(String message, String chatId) {
-        return learningApp.doChatByStream(message, chatId);
+        return sseChunkCoalescer.coalesce(learningApp.doChatByStream(message, chatId));
     }
     @GetMapping(value = "/love_app/chat/sse/server_sent_event")
     public Flux<ServerSentEvent<String>> doChatWithLoveAppSSEServerSentEvent(String message, String chatId) {
-        return learningApp.doChatByStream(message, chatId)
+        return sseChunkCoalescer.coalesce(learningApp.doChatByStream(message, chatId))
                 .map(chunk -> ServerSentEvent.<String>builder()
                         .data(chunk)
                         .build());
@@ -57,7 +77,7 @@ public class AiController {
         // 创建一个超时时间较长的 SseEmitter
         SseEmitter emitter = new SseEmitter(180000L); // 3分钟超时
         // 获取 Flux 数据流并直接订阅
-        learningApp.doChatByStream(message, chatId)
+        sseChunkCoalescer.coalesce(learningApp.doChatByStream(message, chatId))
                 .subscribe(
                         // 处理每条消息
                         chunk -> {
@@ -86,21 +106,43 @@ public class AiController {
      */
     @GetMapping("/manus/chat")
     public SseEmitter doChatWithManus(String message, @RequestParam(required = false) String sessionId) {
+        // 每次请求基于共享模板创建新的 LearningManus 实例，只分配会话状态，避免状态污染
+        return runAgent(new LearningManus(learningManusTemplate), message, sessionId);
+    }
+
+    /**
+     * 以“先规划后执行”模式调用 Manus 超级智能体
+     * 每轮由模型给出一组带依赖关系的工具调用，互不依赖的调用并行执行
+     *
+     * @param message 用户消息
+     * @param sessionId 会话ID（可选，用于中断）
+     * @return SSE 流式响应
+     */
+    @GetMapping("/manus/plan")
+    public SseEmitter doPlanWithManus(String message, @RequestParam(required = false) String sessionId) {
+        return runAgent(new PlanExecuteAgent(learningManusTemplate), message, sessionId);
+    }
+
+    private SseEmitter runAgent(BaseAgent agent, String message, String sessionId) {
         // 生成或使用传入的sessionId
         String sid = (sessionId != null && !sessionId.isEmpty()) ? sessionId : UUID.randomUUID().toString();
         
-        // 每次请求创建新的 LearningManus 实例，避免状态污染
-        LearningManus learningManus = new LearningManus(allTools, dashscopeChatModel);
-        
-        // 保存到运行中的Agent Map
-        runningAgents.put(sid, learningManus);
+        // 登记到会话注册表
+        agentSessionRegistry.register(sid, agent);
         
-        SseEmitter emitter = learningManus.runStream(message);
+        // 在有界的智能体执行服务上运行，容量已满时由 handleAgentRejected 返回 429
+        SseEmitter emitter;
+        try {
+            emitter = agent.runStream(message, agentExecutionService);
+        } catch (AgentRejectedException e) {
+            agentSessionRegistry.unregister(sid, agent);
+            throw e;
+        }
         
         // 完成时清理
-        emitter.onCompletion(() -> runningAgents.remove(sid));
-        emitter.onTimeout(() -> runningAgents.remove(sid));
-        emitter.onError(e -> runningAgents.remove(sid));
+        emitter.onCompletion(() -> agentSessionRegistry.unregister(sid, agent));
+        emitter.onTimeout(() -> agentSessionRegistry.unregister(sid, agent));
+        emitter.onError(e -> agentSessionRegistry.unregister(sid, agent));
         
         return emitter;
     }
@@ -113,13 +155,21 @@ public class AiController {
      */
     @PostMapping("/manus/stop")
     public ResponseEntity<Map<String, Object>> stopManus(@RequestParam String sessionId) {
-        LearningManus agent = runningAgents.get(sessionId);
-        if (agent != null) {
-            agent.interrupt();
-            runningAgents.remove(sessionId);
+        if (agentSessionRegistry.interrupt(sessionId)) {
             return ResponseEntity.ok(Map.of("success", true, "message", "Agent已中断"));
         }
         return ResponseEntity.ok(Map.of("success", false, "message", "未找到对应的Agent会话"));
     }
 
+    /**
+     * 智能体执行服务已满时快速失败，通过 Retry-After 告诉客户端多久后重试
+     */
+    @ExceptionHandler(AgentRejectedException.class)
+    public ResponseEntity<String> handleAgentRejected(AgentRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+
 }
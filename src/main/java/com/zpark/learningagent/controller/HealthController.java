@@ -1,15 +1,106 @@
 package com.zpark.learningagent.controller;
 
+import com.zpark.learningagent.agent.AgentExecutionService;
+import com.zpark.learningagent.agent.session.AgentSessionRegistry;
+import com.zpark.learningagent.app.ChatRequestCoalescer;
+import com.zpark.learningagent.app.SemanticResponseCache;
+import com.zpark.learningagent.chatmemory.CachingChatMemory;
+import com.zpark.learningagent.ratelimit.AdmissionLimiter;
+import com.zpark.learningagent.tools.ToolResultCache;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/health")
 public class HealthController {
 
+    @Resource
+    private AgentExecutionService agentExecutionService;
+
+    @Resource
+    private ToolResultCache toolResultCache;
+
+    @Resource
+    private AgentSessionRegistry agentSessionRegistry;
+
+    @Resource
+    private ChatRequestCoalescer chatRequestCoalescer;
+
+    @Resource
+    private SemanticResponseCache semanticResponseCache;
+
+    @Resource
+    private AdmissionLimiter admissionLimiter;
+
+    // 只有开启 chat-memory.cache 时才存在
+    @Resource
+    private ObjectProvider<CachingChatMemory> chatMemoryCache;
+
     @GetMapping
     public String healthCheck() {
         return "ok";
     }
+
+    /**
+     * 智能体执行服务的运行数、排队数和拒绝次数
+     */
+    @GetMapping("/agents")
+    public AgentExecutionService.Stats agentStats() {
+        return agentExecutionService.stats();
+    }
+
+    /**
+     * 工具结果缓存的命中、未命中和合并请求次数
+     */
+    @GetMapping("/tools")
+    public ToolResultCache.Stats toolCacheStats() {
+        return toolResultCache.stats();
+    }
+
+    /**
+     * 本节点和整个集群正在运行的智能体会话数
+     */
+    @GetMapping("/sessions")
+    public AgentSessionRegistry.Stats sessionStats() {
+        return agentSessionRegistry.stats();
+    }
+
+    /**
+     * 对话请求合并：实际发起的模型调用数和共享了其他请求结果的请求数
+     */
+    @GetMapping("/chat")
+    public ChatRequestCoalescer.Stats chatCoalesceStats() {
+        return chatRequestCoalescer.stats();
+    }
+
+    /**
+     * 语义缓存各模式的命中、未命中次数和条目数
+     */
+    @GetMapping("/semantic-cache")
+    public Map<String, SemanticResponseCache.Stats> semanticCacheStats() {
+        return semanticResponseCache.stats();
+    }
+
+    /**
+     * 限流准入、各原因的拒绝次数和进行中的请求数
+     */
+    @GetMapping("/rate-limit")
+    public AdmissionLimiter.Stats rateLimitStats() {
+        return admissionLimiter.stats();
+    }
+
+    /**
+     * 会话内存缓存的命中、未命中、淘汰和刷盘情况；未开启缓存时返回 404
+     */
+    @GetMapping("/chat-memory")
+    public ResponseEntity<CachingChatMemory.CacheStats> chatMemoryStats() {
+        CachingChatMemory cache = chatMemoryCache.getIfAvailable();
+        return cache == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(cache.stats());
+    }
 }
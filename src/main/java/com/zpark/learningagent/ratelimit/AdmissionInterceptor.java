@@ -0,0 +1,123 @@
+package com.zpark.learningagent.ratelimit;
+
+import jakarta.annotation.Resource;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 调用大模型的接口的准入拦截器
+ * 在进入控制器之前申请准入，被拒绝时直接返回 429 和 Retry-After，不会调用模型。
+ * 流式接口（SseEmitter / Flux / Mono）的并发名额一直持有到异步请求结束，而不是控制器方法返回时。
+ */
+@Component
+public class AdmissionInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT_ATTRIBUTE = AdmissionInterceptor.class.getName() + ".permit";
+
+    @Resource
+    private AdmissionLimiter admissionLimiter;
+
+    // 智能体一次运行会调用多次模型，按多个令牌计费
+    @Value("${rate-limit.agent-cost:5}")
+    private double agentCost;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        // 异步请求结束后的再次分发沿用第一次的准入
+        if (request.getDispatcherType() == DispatcherType.ASYNC
+                || request.getAttribute(PERMIT_ATTRIBUTE) != null) {
+            return true;
+        }
+        try {
+            AdmissionLimiter.Permit permit = admissionLimiter.acquire(userKey(request),
+                    "ip:" + request.getRemoteAddr(), cost(request));
+            request.setAttribute(PERMIT_ATTRIBUTE, permit);
+            return true;
+        } catch (RateLimitedException e) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        AdmissionLimiter.Permit permit = (AdmissionLimiter.Permit) request.getAttribute(PERMIT_ATTRIBUTE);
+        if (permit == null || !request.isAsyncStarted()) {
+            return;
+        }
+        // 客户端断开或超时时不一定会再次分发，直接监听异步请求的结束
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                permit.close();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                permit.close();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                permit.close();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.isAsyncStarted()) {
+            return;
+        }
+        AdmissionLimiter.Permit permit = (AdmissionLimiter.Permit) request.getAttribute(PERMIT_ATTRIBUTE);
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    /**
+     * 用户标识：优先使用会话 ID，其次是客户端地址
+     * 会话 ID 由客户端提供，不断换新的会话 ID 可以绕过用户级限制，所以同时按客户端地址再限制一次；
+     * 不直接读取 X-Forwarded-For，客户端可以随意伪造它来绕过按地址的限制；
+     * 部署在反向代理之后时由 server.forward-headers-strategy 让容器只接受可信代理给出的地址
+     */
+    private static String userKey(HttpServletRequest request) {
+        String chatId = request.getParameter("chatId");
+        if (chatId != null && !chatId.isBlank()) {
+            return "chat:" + chatId;
+        }
+        String sessionId = request.getParameter("sessionId");
+        if (sessionId != null && !sessionId.isBlank()) {
+            return "session:" + sessionId;
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private double cost(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return path.startsWith("/ai/manus/") ? agentCost : 1;
+    }
+}
@@ -0,0 +1,276 @@
+package com.zpark.learningagent.ratelimit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 调用大模型的请求的准入控制
+ * 按用户（chatId / sessionId，缺省为客户端地址）、客户端地址和全局三级限制：
+ * 1. 速率：每个用户、每个地址和全局各一个令牌桶，令牌不足时立即拒绝，Retry-After 为令牌补足所需的时间；
+ * 2. 并发：单个用户和单个地址同时进行的请求数有上限，超出立即拒绝，保证一个用户不能占满全局名额；
+ *    用户标识由客户端提供，每次换一个新的 chatId 只能绕过用户级限制，仍受所在地址的限制；
+ * 3. 全局并发名额用公平信号量分配，名额已满时按到达顺序短暂排队，超过最长等待时间仍未轮到则拒绝。
+ * 拒绝时不会调用模型，被拒绝请求已扣减的令牌会归还。
+ */
+@Component
+public class AdmissionLimiter {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionLimiter.class);
+
+    public static final String USER_RATE = "user-rate";
+    public static final String ADDRESS_RATE = "address-rate";
+    public static final String GLOBAL_RATE = "global-rate";
+    public static final String USER_CONCURRENCY = "user-concurrency";
+    public static final String ADDRESS_CONCURRENCY = "address-concurrency";
+    public static final String GLOBAL_CONCURRENCY = "global-concurrency";
+
+    // 跟踪的用户数超过该值时回收空闲用户
+    private static final int SWEEP_THRESHOLD = 10_000;
+
+    private static final Permit NOOP = new Permit(() -> { });
+
+    private final boolean enabled;
+
+    private final double userCapacity;
+
+    private final double userRate;
+
+    private final int userMaxConcurrent;
+
+    private final double addressCapacity;
+
+    private final double addressRate;
+
+    private final int addressMaxConcurrent;
+
+    private final TokenBucket globalBucket;
+
+    private final int globalMaxConcurrent;
+
+    private final Semaphore globalSlots;
+
+    private final long maxWaitMillis;
+
+    private final LongSupplier clock;
+
+    private final Map<String, UserState> users = new ConcurrentHashMap<>();
+
+    // 地址级别的状态与用户级别结构相同，只是限制不同
+    private final Map<String, UserState> addresses = new ConcurrentHashMap<>();
+
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final Map<String, AtomicLong> rejected = Map.of(
+            USER_RATE, new AtomicLong(),
+            ADDRESS_RATE, new AtomicLong(),
+            GLOBAL_RATE, new AtomicLong(),
+            USER_CONCURRENCY, new AtomicLong(),
+            ADDRESS_CONCURRENCY, new AtomicLong(),
+            GLOBAL_CONCURRENCY, new AtomicLong());
+
+    @Autowired
+    public AdmissionLimiter(@Value("${rate-limit.enabled:true}") boolean enabled,
+                            @Value("${rate-limit.user.requests-per-second:1}") double userRate,
+                            @Value("${rate-limit.user.burst:5}") double userBurst,
+                            @Value("${rate-limit.user.max-concurrent:2}") int userMaxConcurrent,
+                            @Value("${rate-limit.address.requests-per-second:4}") double addressRate,
+                            @Value("${rate-limit.address.burst:20}") double addressBurst,
+                            @Value("${rate-limit.address.max-concurrent:8}") int addressMaxConcurrent,
+                            @Value("${rate-limit.global.requests-per-second:20}") double globalRate,
+                            @Value("${rate-limit.global.burst:40}") double globalBurst,
+                            @Value("${rate-limit.global.max-concurrent:32}") int globalMaxConcurrent,
+                            @Value("${rate-limit.global.max-wait-ms:200}") long maxWaitMillis) {
+        this(enabled, userRate, userBurst, userMaxConcurrent, addressRate, addressBurst, addressMaxConcurrent,
+                globalRate, globalBurst, globalMaxConcurrent, maxWaitMillis, System::nanoTime);
+    }
+
+    /**
+     * 地址级别使用与用户级别相同的限制
+     */
+    public AdmissionLimiter(boolean enabled, double userRate, double userBurst, int userMaxConcurrent,
+                            double globalRate, double globalBurst, int globalMaxConcurrent, long maxWaitMillis,
+                            LongSupplier clock) {
+        this(enabled, userRate, userBurst, userMaxConcurrent, userRate, userBurst, userMaxConcurrent,
+                globalRate, globalBurst, globalMaxConcurrent, maxWaitMillis, clock);
+    }
+
+    public AdmissionLimiter(boolean enabled, double userRate, double userBurst, int userMaxConcurrent,
+                            double addressRate, double addressBurst, int addressMaxConcurrent,
+                            double globalRate, double globalBurst, int globalMaxConcurrent, long maxWaitMillis,
+                            LongSupplier clock) {
+        this.enabled = enabled;
+        this.userRate = userRate;
+        this.userCapacity = userBurst;
+        this.userMaxConcurrent = Math.max(1, userMaxConcurrent);
+        this.addressRate = addressRate;
+        this.addressCapacity = addressBurst;
+        this.addressMaxConcurrent = Math.max(1, addressMaxConcurrent);
+        this.globalBucket = new TokenBucket(globalBurst, globalRate, clock);
+        this.globalMaxConcurrent = Math.max(1, globalMaxConcurrent);
+        this.globalSlots = new Semaphore(this.globalMaxConcurrent, true);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * 申请一次调用的准入，不做地址级别的限制
+     */
+    public Permit acquire(String key, double cost) {
+        return acquire(key, null, cost);
+    }
+
+    /**
+     * 申请一次调用的准入，成功后必须在请求结束时关闭返回的 Permit
+     *
+     * @param key     用户标识
+     * @param address 客户端地址标识，为 null 或与用户标识相同时只做用户级别的限制
+     * @param cost    本次请求消耗的令牌数，多步智能体可以设置得比普通对话高
+     * @throws RateLimitedException 超出速率或并发上限
+     */
+    public Permit acquire(String key, String address, double cost) {
+        if (!enabled) {
+            return NOOP;
+        }
+        if (users.size() > SWEEP_THRESHOLD) {
+            sweepIdle(users);
+        }
+        if (addresses.size() > SWEEP_THRESHOLD) {
+            sweepIdle(addresses);
+        }
+        UserState user = users.computeIfAbsent(key, k -> new UserState(new TokenBucket(userCapacity, userRate, clock)));
+        UserState client = address == null || address.equals(key) ? null
+                : addresses.computeIfAbsent(address,
+                        k -> new UserState(new TokenBucket(addressCapacity, addressRate, clock)));
+
+        long userWait = user.bucket.tryConsume(cost);
+        if (userWait > 0) {
+            throw reject(USER_RATE, key, "请求过于频繁，请稍后重试", userWait);
+        }
+        if (client != null) {
+            long addressWait = client.bucket.tryConsume(cost);
+            if (addressWait > 0) {
+                user.bucket.refund(cost);
+                throw reject(ADDRESS_RATE, address, "请求过于频繁，请稍后重试", addressWait);
+            }
+        }
+        long globalWait = globalBucket.tryConsume(cost);
+        if (globalWait > 0) {
+            refundLocal(user, client, cost);
+            throw reject(GLOBAL_RATE, key, "当前请求过多，请稍后重试", globalWait);
+        }
+        if (user.inFlight.incrementAndGet() > userMaxConcurrent) {
+            user.inFlight.decrementAndGet();
+            refund(user, client, cost);
+            throw reject(USER_CONCURRENCY, key, "同时进行的请求过多，请等待当前请求完成", TimeUnit.SECONDS.toNanos(1));
+        }
+        if (client != null && client.inFlight.incrementAndGet() > addressMaxConcurrent) {
+            client.inFlight.decrementAndGet();
+            user.inFlight.decrementAndGet();
+            refund(user, client, cost);
+            throw reject(ADDRESS_CONCURRENCY, address, "同时进行的请求过多，请等待当前请求完成",
+                    TimeUnit.SECONDS.toNanos(1));
+        }
+        boolean slot;
+        try {
+            slot = globalSlots.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slot = false;
+        }
+        if (!slot) {
+            release(user, client);
+            refund(user, client, cost);
+            throw reject(GLOBAL_CONCURRENCY, key, "当前请求过多，请稍后重试", TimeUnit.SECONDS.toNanos(1));
+        }
+        admitted.incrementAndGet();
+        return new Permit(() -> {
+            globalSlots.release();
+            release(user, client);
+        });
+    }
+
+    private static void release(UserState user, UserState client) {
+        user.inFlight.decrementAndGet();
+        if (client != null) {
+            client.inFlight.decrementAndGet();
+        }
+    }
+
+    private void refund(UserState user, UserState client, double cost) {
+        refundLocal(user, client, cost);
+        globalBucket.refund(cost);
+    }
+
+    /**
+     * 只归还用户和地址级别的令牌
+     */
+    private static void refundLocal(UserState user, UserState client, double cost) {
+        user.bucket.refund(cost);
+        if (client != null) {
+            client.bucket.refund(cost);
+        }
+    }
+
+    private RateLimitedException reject(String reason, String key, String message, long waitNanos) {
+        rejected.get(reason).incrementAndGet();
+        long retryAfter = Math.max(1, (long) Math.ceil(waitNanos / 1_000_000_000d));
+        log.warn("拒绝请求 [{}] 用户 {}，建议 {} 秒后重试", reason, key, retryAfter);
+        return new RateLimitedException(reason, message, retryAfter);
+    }
+
+    /**
+     * 回收没有进行中请求且令牌已补满的用户或地址，它们的状态与新建的完全相同
+     */
+    private static void sweepIdle(Map<String, UserState> states) {
+        states.keySet().forEach(key -> states.computeIfPresent(key,
+                (k, state) -> state.inFlight.get() == 0 && state.bucket.isFull() ? null : state));
+    }
+
+    public Stats stats() {
+        return new Stats(admitted.get(), rejected.get(USER_RATE).get(), rejected.get(ADDRESS_RATE).get(),
+                rejected.get(GLOBAL_RATE).get(), rejected.get(USER_CONCURRENCY).get(),
+                rejected.get(ADDRESS_CONCURRENCY).get(), rejected.get(GLOBAL_CONCURRENCY).get(),
+                globalMaxConcurrent - globalSlots.availablePermits(), users.size(), addresses.size());
+    }
+
+    public record Stats(long admitted, long rejectedUserRate, long rejectedAddressRate, long rejectedGlobalRate,
+                        long rejectedUserConcurrency, long rejectedAddressConcurrency, long rejectedGlobalConcurrency,
+                        int inFlight, int trackedUsers, int trackedAddresses) {
+    }
+
+    private record UserState(TokenBucket bucket, AtomicInteger inFlight) {
+        private UserState(TokenBucket bucket) {
+            this(bucket, new AtomicInteger());
+        }
+    }
+
+    /**
+     * 一次准入，关闭时释放并发名额；重复关闭只生效一次
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+}
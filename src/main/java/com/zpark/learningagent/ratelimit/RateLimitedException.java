@@ -0,0 +1,25 @@
+package com.zpark.learningagent.ratelimit;
+
+/**
+ * 请求超出限流或并发上限时抛出，携带拒绝原因和建议的重试等待秒数
+ */
+public class RateLimitedException extends RuntimeException {
+
+    private final String reason;
+
+    private final long retryAfterSeconds;
+
+    public RateLimitedException(String reason, String message, long retryAfterSeconds) {
+        super(message);
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
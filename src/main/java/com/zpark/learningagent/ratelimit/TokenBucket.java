@@ -0,0 +1,69 @@
+package com.zpark.learningagent.ratelimit;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 令牌桶
+ * 按固定速率补充令牌，最多积累 capacity 个；请求取走与其开销相同数量的令牌，令牌不足时拒绝并给出需要等待的时间。
+ * 令牌按时间差惰性补充，不需要后台线程。
+ */
+public final class TokenBucket {
+
+    private final double capacity;
+
+    // 每纳秒补充的令牌数
+    private final double tokensPerNano;
+
+    private final LongSupplier clock;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    public TokenBucket(double capacity, double tokensPerSecond, LongSupplier clock) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = Math.max(1e-9, tokensPerSecond) / 1_000_000_000d;
+        this.clock = clock;
+        this.tokens = this.capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * 尝试取走 cost 个令牌
+     *
+     * @return 0 表示成功；否则为令牌补足还需要等待的纳秒数，此时不扣减令牌
+     */
+    public synchronized long tryConsume(double cost) {
+        refill();
+        // 开销超过容量的请求在桶满时放行，避免永远无法通过
+        double required = Math.min(cost, capacity);
+        if (tokens >= required) {
+            tokens -= required;
+            return 0;
+        }
+        return (long) Math.ceil((required - tokens) / tokensPerNano);
+    }
+
+    /**
+     * 归还令牌，用于后续检查失败时撤销本次扣减
+     */
+    public synchronized void refund(double cost) {
+        tokens = Math.min(capacity, tokens + Math.min(cost, capacity));
+    }
+
+    /**
+     * 桶是否已满，满桶的空闲用户可以安全回收
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.zpark.learningagent.tools;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.time.Duration;
+
+/**
+ * 带结果缓存的工具回调
+ * 只用于包装幂等的工具（如搜索、网页抓取），相同参数在 TTL 内直接返回缓存的结果。
+ */
+public class CachingToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    private final ToolResultCache cache;
+
+    private final Duration ttl;
+
+    public CachingToolCallback(ToolCallback delegate, ToolResultCache cache, Duration ttl) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return cache.get(getToolDefinition().name(), toolInput, ttl, () -> delegate.call(toolInput));
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        // 工具上下文可能影响结果，带上下文的调用不走缓存
+        if (toolContext != null && !toolContext.getContext().isEmpty()) {
+            return delegate.call(toolInput, toolContext);
+        }
+        return call(toolInput);
+    }
+}
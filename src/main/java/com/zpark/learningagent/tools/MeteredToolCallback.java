@@ -0,0 +1,72 @@
+package com.zpark.learningagent.tools;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 记录耗时和成败的工具回调
+ * 包在最外层，记录的是调用方实际等待的时间（缓存命中时也计入），
+ * 抛出异常或返回以 "Error" 开头的结果都记为失败，据此计算每个工具的错误率。
+ */
+public class MeteredToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    private final Timer successTimer;
+
+    private final Timer errorTimer;
+
+    public MeteredToolCallback(ToolCallback delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.successTimer = timer(registry, delegate.getToolDefinition().name(), "success");
+        this.errorTimer = timer(registry, delegate.getToolDefinition().name(), "error");
+    }
+
+    private static Timer timer(MeterRegistry registry, String tool, String outcome) {
+        return Timer.builder("agent.tool.duration")
+                .description("工具调用耗时")
+                .tag("tool", tool)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return record(() -> delegate.call(toolInput));
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        return record(() -> delegate.call(toolInput, toolContext));
+    }
+
+    private String record(Supplier<String> invocation) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = invocation.get();
+            success = !ToolResults.isError(result);
+            return result;
+        } finally {
+            (success ? successTimer : errorTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package com.zpark.learningagent.tools;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbacks;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration  // 标记为Spring配置类，用于注册Bean
 public class ToolRegistration {
 
     @Value("${search-api.api-key}")  // 从配置文件中注入搜索API的密钥
     private String searchApiKey;
 
+    @Value("${tool-cache.enabled:true}")  // 是否缓存幂等工具的调用结果
+    private boolean toolCacheEnabled;
+
+    @Value("${tool-cache.max-entries:1000}")  // 缓存的最大条目数
+    private int toolCacheMaxEntries;
+
+    // 需要缓存的幂等工具及其 TTL（秒），格式为 工具名=秒数，逗号分隔；未列出的工具不缓存
+    @Value("${tool-cache.tools:searchWeb=600,searchImage=3600,scrapeWebPage=1800}")
+    private String toolCacheTools;
+
+    @Bean  // 工具结果缓存，所有工具和所有请求共享
+    public ToolResultCache toolResultCache() {
+        return new ToolResultCache(toolCacheMaxEntries);
+    }
+
     @Bean  // 注册为Spring Bean，返回所有工具的回调数组
-    public ToolCallback[] allTools() {
+    public ToolCallback[] allTools(ToolResultCache toolResultCache, MeterRegistry meterRegistry) {
         // 创建文件操作工具实例，用于读写文件操作
         FileOperationTool fileOperationTool = new FileOperationTool();
         // 创建网络搜索工具实例，使用注入的API密钥进行百度搜索
@@ -30,8 +50,8 @@ public class ToolRegistration {
         ImageSearchTool imageSearchTool = new ImageSearchTool();
         //创建终止工具实例，用于终止当前任务
         TerminateTool terminateTool = new TerminateTool();
-        // 使用ToolCallbacks工具类将所有工具实例转换为回调数组并返回
-        return ToolCallbacks.from(
+        // 使用ToolCallbacks工具类将所有工具实例转换为回调数组
+        ToolCallback[] toolCallbacks = ToolCallbacks.from(
             fileOperationTool,      // 文件操作工具回调
             webSearchTool,          // 网络搜索工具回调
             webScrapingTool,        // 网页抓取工具回调
@@ -41,5 +61,27 @@ public class ToolRegistration {
             imageSearchTool,         // 图片搜索工具回调
              terminateTool            // 终止工具回调
         );
+        // 为声明为幂等的工具包上结果缓存
+        Map<String, Duration> ttls = toolCacheEnabled ? parseToolTtls(toolCacheTools) : Map.of();
+        for (int i = 0; i < toolCallbacks.length; i++) {
+            Duration ttl = ttls.get(toolCallbacks[i].getToolDefinition().name());
+            if (ttl != null) {
+                toolCallbacks[i] = new CachingToolCallback(toolCallbacks[i], toolResultCache, ttl);
+            }
+            // 最外层记录每个工具的耗时和错误率
+            toolCallbacks[i] = new MeteredToolCallback(toolCallbacks[i], meterRegistry);
+        }
+        return toolCallbacks;
+    }
+
+    private static Map<String, Duration> parseToolTtls(String spec) {
+        Map<String, Duration> ttls = new HashMap<>();
+        for (String item : spec.split(",")) {
+            String[] parts = item.trim().split("=");
+            if (parts.length == 2 && !parts[0].isBlank()) {
+                ttls.put(parts[0].trim(), Duration.ofSeconds(Long.parseLong(parts[1].trim())));
+            }
+        }
+        return ttls;
     }
 }
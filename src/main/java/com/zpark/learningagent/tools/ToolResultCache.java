@@ -0,0 +1,137 @@
+package com.zpark.learningagent.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 工具调用结果缓存
+ * 以“工具名 + 规范化后的参数”为键，条目按各工具的 TTL 过期，总条数有上限（LRU 淘汰）。
+ * 同一个键同时只会有一次真实调用，并发的相同请求等待并共享这次调用的结果（single-flight）。
+ * 只缓存成功的结果，以 "Error" 开头的错误结果不缓存。
+ */
+public class ToolResultCache {
+    private static final Logger log = LoggerFactory.getLogger(ToolResultCache.class);
+
+    // 按键排序输出，使参数顺序不同但内容相同的 JSON 得到同一个键
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final int maxEntries;
+
+    // 访问顺序的 LinkedHashMap 实现 LRU，所有操作都在 entries 锁内完成
+    private final LinkedHashMap<String, Entry> entries;
+
+    // 正在执行中的调用
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ToolResultCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ToolResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 返回缓存的结果，没有或已过期时执行 loader；并发的相同调用共享同一次执行
+     * 等待他人执行时被中断（步骤被取消或超时）会立即放弃等待，保留中断标志并返回错误结果
+     */
+    public String get(String toolName, String arguments, Duration ttl, Supplier<String> loader) {
+        String key = toolName + ":" + normalize(arguments);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                entries.remove(key);
+            }
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "Error: 工具 " + toolName + " 执行被中断";
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException
+                        ? runtimeException : new CompletionException(e.getCause());
+            }
+        }
+        misses.incrementAndGet();
+        try {
+            String value = loader.get();
+            if (value != null && !ToolResults.isError(value)) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(value, System.currentTimeMillis() + ttl.toMillis()));
+                }
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * 把 JSON 参数规范化为按键排序的紧凑形式，解析失败时使用去掉首尾空白的原文
+     */
+    static String normalize(String arguments) {
+        if (arguments == null) {
+            return "";
+        }
+        try {
+            Object tree = CANONICAL_MAPPER.readValue(arguments, Object.class);
+            return CANONICAL_MAPPER.writeValueAsString(tree);
+        } catch (Exception e) {
+            return arguments.strip();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.get(), misses.get(), coalesced.get(), size);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        log.info("工具结果缓存已清空");
+    }
+
+    private record Entry(String value, long expiresAt) {
+    }
+
+    public record Stats(long hits, long misses, long coalesced, int entries) {
+    }
+}
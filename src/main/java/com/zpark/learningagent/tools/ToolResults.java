@@ -0,0 +1,23 @@
+package com.zpark.learningagent.tools;
+
+/**
+ * 工具返回值的通用判断
+ * 各工具出错时不抛异常，而是返回以 "Error" 开头的文本；缓存、指标和智能体都按这个约定识别失败的调用。
+ */
+public final class ToolResults {
+
+    private ToolResults() {
+    }
+
+    /**
+     * 判断工具返回值是否表示失败，null 视为成功
+     */
+    public static boolean isError(String result) {
+        if (result == null) {
+            return false;
+        }
+        // 工具返回值经过 JSON 序列化，字符串结果会带上引号
+        String text = result.startsWith("\"") ? result.substring(1) : result;
+        return text.startsWith("Error");
+    }
+}
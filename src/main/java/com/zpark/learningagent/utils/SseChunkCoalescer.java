@@ -0,0 +1,139 @@
+package com.zpark.learningagent.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * SSE 输出合并器
+ * 模型逐块返回的内容先在内存中累积，满足以下任一条件时才合并成一帧写出：
+ * 1. 距离缓冲区中第一块到达已经过了时间窗口；
+ * 2. 累积的字节数达到阈值；
+ * 3. 本块以句子结束符（句号、问号、换行等）结尾。
+ * 每个流的第一块立即写出，不增加首字延迟；之后的写出次数大幅减少，前端看到的仍然是连续的输出。
+ */
+@Component
+public class SseChunkCoalescer {
+
+    private static final String SENTENCE_BOUNDARIES = "。！？；.!?;\n";
+
+    private final boolean enabled;
+
+    private final Duration window;
+
+    private final int maxBytes;
+
+    private final boolean flushOnSentence;
+
+    private final Scheduler scheduler = Schedulers.parallel();
+
+    public SseChunkCoalescer(@Value("${sse.coalesce.enabled:true}") boolean enabled,
+                             @Value("${sse.coalesce.window-ms:40}") long windowMs,
+                             @Value("${sse.coalesce.max-bytes:512}") int maxBytes,
+                             @Value("${sse.coalesce.flush-on-sentence:true}") boolean flushOnSentence) {
+        this.enabled = enabled;
+        this.window = Duration.ofMillis(Math.max(1, windowMs));
+        this.maxBytes = Math.max(1, maxBytes);
+        this.flushOnSentence = flushOnSentence;
+    }
+
+    /**
+     * 合并流中的内容块；未启用时原样返回
+     */
+    public Flux<String> coalesce(Flux<String> chunks) {
+        if (!enabled) {
+            return chunks;
+        }
+        return Flux.create(sink -> {
+            Buffer buffer = new Buffer();
+            Disposable upstream = chunks.subscribe(
+                    chunk -> {
+                        synchronized (buffer) {
+                            if (chunk == null || chunk.isEmpty() || buffer.closed) {
+                                return;
+                            }
+                            buffer.text.append(chunk);
+                            buffer.bytes += chunk.getBytes(StandardCharsets.UTF_8).length;
+                            if (!buffer.started || buffer.bytes >= maxBytes
+                                    || (flushOnSentence && endsWithBoundary(chunk))) {
+                                buffer.started = true;
+                                // 在锁内发出，保证与定时刷新之间的顺序
+                                buffer.drainTo(sink::next);
+                            } else if (buffer.timer == null) {
+                                buffer.timer = scheduler.schedule(() -> {
+                                    synchronized (buffer) {
+                                        buffer.timer = null;
+                                        if (!buffer.closed) {
+                                            buffer.drainTo(sink::next);
+                                        }
+                                    }
+                                }, window.toMillis(), TimeUnit.MILLISECONDS);
+                            }
+                        }
+                    },
+                    error -> {
+                        synchronized (buffer) {
+                            buffer.drainTo(sink::next);
+                            buffer.closed = true;
+                        }
+                        sink.error(error);
+                    },
+                    () -> {
+                        synchronized (buffer) {
+                            buffer.drainTo(sink::next);
+                            buffer.closed = true;
+                        }
+                        sink.complete();
+                    });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                synchronized (buffer) {
+                    buffer.closed = true;
+                    buffer.cancelTimer();
+                }
+            });
+        });
+    }
+
+    private static boolean endsWithBoundary(String chunk) {
+        return SENTENCE_BOUNDARIES.indexOf(chunk.charAt(chunk.length() - 1)) >= 0;
+    }
+
+    /**
+     * 单个流的缓冲区，所有字段都在 this 锁内访问
+     */
+    private static final class Buffer {
+        private final StringBuilder text = new StringBuilder();
+        private int bytes;
+        // 第一块是否已经写出
+        private boolean started;
+        private boolean closed;
+        private Disposable timer;
+
+        private void drainTo(Consumer<String> consumer) {
+            cancelTimer();
+            if (text.isEmpty()) {
+                return;
+            }
+            String out = text.toString();
+            text.setLength(0);
+            bytes = 0;
+            consumer.accept(out);
+        }
+
+        private void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.zpark.learningagent.utils;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * Token 数量估算工具
+ * 不依赖具体模型的分词器：中日韩字符按 1 个 token 计，其余字符按 4 个字符 1 个 token 计，
+ * 再给每条消息加上固定的角色/格式开销，用于预算控制已经足够准确。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的角色、分隔符等固定开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的 token 数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 截取估算 token 数不超过 maxTokens 的最长前缀
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        int cjk = 0;
+        int other = 0;
+        int end = 0;
+        while (end < text.length()) {
+            int codePoint = text.codePointAt(end);
+            boolean isCjk = isCjk(codePoint);
+            int nextCjk = isCjk ? cjk + 1 : cjk;
+            int nextOther = isCjk ? other : other + 1;
+            if (nextCjk + (nextOther + 3) / 4 > maxTokens) {
+                break;
+            }
+            cjk = nextCjk;
+            other = nextOther;
+            end += Character.charCount(codePoint);
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * 估算单条消息的 token 数
+     */
+    public static int estimate(Message message) {
+        return MESSAGE_OVERHEAD_TOKENS + estimate(message.getText());
+    }
+
+    /**
+     * 估算消息列表的 token 数
+     */
+    public static int estimate(List<? extends Message> messages) {
+        int total = 0;
+        for (Message message : messages) {
+            total += estimate(message);
+        }
+        return total;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
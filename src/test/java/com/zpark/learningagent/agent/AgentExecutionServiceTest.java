@@ -0,0 +1,35 @@
+package com.zpark.learningagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class AgentExecutionServiceTest {
+
+    @Test
+    void rejectsWhenConcurrencyAndQueueAreFull() throws Exception {
+        AgentExecutionService service = new AgentExecutionService(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+        service.execute(blocking);
+        service.execute(blocking);
+        AgentRejectedException rejected = Assertions.assertThrows(AgentRejectedException.class,
+                () -> service.execute(blocking));
+        Assertions.assertTrue(rejected.getRetryAfterSeconds() >= 1);
+        Assertions.assertEquals(1, service.stats().rejected());
+
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        service.shutdown();
+    }
+}
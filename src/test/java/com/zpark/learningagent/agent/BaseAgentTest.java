@@ -0,0 +1,99 @@
+package com.zpark.learningagent.agent;
+
+import com.zpark.learningagent.agent.model.AgentState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class BaseAgentTest {
+
+    static class SleepingAgent extends BaseAgent {
+        volatile boolean stepInterrupted;
+
+        @Override
+        public String step() {
+            try {
+                Thread.sleep(10_000);
+                return "done";
+            } catch (InterruptedException e) {
+                stepInterrupted = true;
+                return "interrupted";
+            }
+        }
+    }
+
+    @Test
+    void stepTimeoutCancelsInFlightStep() {
+        SleepingAgent agent = new SleepingAgent();
+        agent.setStepTimeout(Duration.ofMillis(200));
+        long start = System.currentTimeMillis();
+        String result = agent.run("你好");
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5_000);
+        Assertions.assertTrue(result.contains("执行超时"), result);
+    }
+
+    @Test
+    void cleanupWaitsForCancelledStepToExit() {
+        AtomicBoolean stepExited = new AtomicBoolean();
+        BaseAgent agent = new BaseAgent() {
+            @Override
+            public String step() {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    // 被取消后还要收尾一段时间，期间继续写消息列表
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException ignored) {
+                    }
+                    getMessageList().add(new AssistantMessage("收尾"));
+                    stepExited.set(true);
+                }
+                return "done";
+            }
+        };
+        agent.setStepTimeout(Duration.ofMillis(200));
+        String result = agent.run("你好");
+        Assertions.assertTrue(result.contains("执行超时"), result);
+        Assertions.assertTrue(stepExited.get());
+    }
+
+    @Test
+    void interruptAbortsRunningStep() throws Exception {
+        SleepingAgent agent = new SleepingAgent();
+        CompletableFuture<String> run = CompletableFuture.supplyAsync(() -> agent.run("你好"));
+        Thread.sleep(300);
+        agent.interrupt();
+        String result = run.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.contains("中断"), result);
+        Thread.sleep(100);
+        Assertions.assertTrue(agent.stepInterrupted);
+    }
+
+    @Test
+    void runRecordsStepAndRunMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BaseAgent agent = new BaseAgent() {
+            @Override
+            public String step() {
+                if (getCcurrentStep() == 2) {
+                    setState(AgentState.FINISHED);
+                }
+                return "ok";
+            }
+        };
+        agent.setName("test");
+        agent.setMetrics(new AgentMetrics(registry));
+        agent.run("你好");
+
+        Assertions.assertEquals(2, registry.get("agent.step.duration").tag("outcome", "success").timer().count());
+        Assertions.assertEquals(2.0, registry.get("agent.run.steps").tag("outcome", "completed").summary().totalAmount());
+        Assertions.assertEquals(0.0, registry.get("agent.active").gauge().value());
+    }
+}
@@ -0,0 +1,48 @@
+package com.zpark.learningagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+
+import java.util.List;
+
+class ParallelToolExecutorTest {
+
+    static class SlowTools {
+        @Tool(description = "sleep then echo")
+        public String slowEcho(@ToolParam(description = "text") String text) throws InterruptedException {
+            Thread.sleep(300);
+            return text;
+        }
+
+        @Tool(description = "always fails")
+        public String broken(@ToolParam(description = "text") String text) {
+            throw new IllegalStateException("boom");
+        }
+    }
+
+    @Test
+    void runsToolCallsInParallelAndKeepsOrder() {
+        ParallelToolExecutor executor = new ParallelToolExecutor(ToolCallbacks.from(new SlowTools()), 4);
+        List<AssistantMessage.ToolCall> toolCalls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "slowEcho", "{\"text\":\"a\"}"),
+                new AssistantMessage.ToolCall("2", "function", "broken", "{\"text\":\"b\"}"),
+                new AssistantMessage.ToolCall("3", "function", "slowEcho", "{\"text\":\"c\"}"),
+                new AssistantMessage.ToolCall("4", "function", "slowEcho", "{\"text\":\"d\"}"));
+        long start = System.currentTimeMillis();
+        ToolResponseMessage message = executor.execute(toolCalls);
+        long elapsed = System.currentTimeMillis() - start;
+
+        List<ToolResponseMessage.ToolResponse> responses = message.getResponses();
+        Assertions.assertEquals(List.of("1", "2", "3", "4"), responses.stream().map(ToolResponseMessage.ToolResponse::id).toList());
+        Assertions.assertTrue(responses.get(0).responseData().contains("a"));
+        Assertions.assertTrue(responses.get(1).responseData().contains("Error"));
+        Assertions.assertTrue(responses.get(3).responseData().contains("d"));
+        // 三个 300ms 的工具并行执行，总耗时应明显小于串行的 900ms
+        Assertions.assertTrue(elapsed < 800, "elapsed " + elapsed);
+    }
+}
@@ -0,0 +1,292 @@
+package com.zpark.learningagent.agent;
+
+import com.zpark.learningagent.agent.context.TokenBudgetContextPolicy;
+import com.zpark.learningagent.agent.model.AgentState;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class PlanExecuteAgentTest {
+
+    static class StubTools {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch blockStarted = new CountDownLatch(1);
+        final CountDownLatch blockInterrupted = new CountDownLatch(1);
+
+        @Tool(description = "echo the text")
+        public String echo(@ToolParam(description = "text") String text) {
+            calls.add(text);
+            return "echo:" + text;
+        }
+
+        @Tool(description = "return a very long text")
+        public String bigResult(@ToolParam(description = "seed") String seed) {
+            return seed + "x".repeat(100_000);
+        }
+
+        @Tool(description = "sleep briefly and track concurrency")
+        public String probe(@ToolParam(description = "text") String text) throws InterruptedException {
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(200);
+                return text;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Tool(description = "block until interrupted")
+        public String block(@ToolParam(description = "text") String text) {
+            blockStarted.countDown();
+            try {
+                Thread.sleep(30_000);
+                return text;
+            } catch (InterruptedException e) {
+                blockInterrupted.countDown();
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+        }
+    }
+
+    /**
+     * 按顺序返回预先准备好的规划结果，并记录每次收到的提示词
+     */
+    static class StubPlanner implements ChatModel {
+        final Deque<String> replies = new ArrayDeque<>();
+        final List<String> prompts = new CopyOnWriteArrayList<>();
+
+        StubPlanner(String... replies) {
+            this.replies.addAll(List.of(replies));
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            prompts.add(prompt.getContents());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(replies.poll()))));
+        }
+    }
+
+    private static PlanExecuteAgent agent(StubTools tools, ChatModel planner, int maxParallelTools,
+                                          TokenBudgetContextPolicy contextPolicy) {
+        AgentTemplate template = new AgentTemplate("planner", "", "", 10,
+                planner == null ? null : ChatClient.builder(planner).build(),
+                ToolCallbacks.from(tools), maxParallelTools, contextPolicy,
+                Duration.ofMinutes(1), Duration.ofMinutes(1));
+        return new PlanExecuteAgent(template);
+    }
+
+    private static PlanExecuteAgent agent(StubTools tools, int maxParallelTools) {
+        return agent(tools, null, maxParallelTools, TokenBudgetContextPolicy.defaults());
+    }
+
+    private static PlanExecuteAgent.PlanTask task(String id, String tool, String text, String... dependsOn) {
+        return new PlanExecuteAgent.PlanTask(id, tool, Map.of("text", text), List.of(dependsOn));
+    }
+
+    private static List<String> ids(List<PlanExecuteAgent.PlanTask> tasks) {
+        return tasks.stream().map(PlanExecuteAgent.PlanTask::id).toList();
+    }
+
+    private static Map<String, PlanExecuteAgent.PlanTask> byId(PlanExecuteAgent.PlanTask... tasks) {
+        Map<String, PlanExecuteAgent.PlanTask> byId = new LinkedHashMap<>();
+        for (PlanExecuteAgent.PlanTask task : tasks) {
+            byId.put(task.id(), task);
+        }
+        return byId;
+    }
+
+    @Test
+    void topologicalOrderPutsDependenciesFirst() {
+        List<PlanExecuteAgent.PlanTask> ordered = PlanExecuteAgent.topologicalOrder(byId(
+                task("t3", "echo", "c", "t1", "t2"),
+                task("t2", "echo", "b", "t1"),
+                task("t1", "echo", "a")));
+        Assertions.assertEquals(List.of("t1", "t2", "t3"), ids(ordered));
+    }
+
+    @Test
+    void topologicalOrderDropsCycles() {
+        List<PlanExecuteAgent.PlanTask> ordered = PlanExecuteAgent.topologicalOrder(byId(
+                task("t1", "echo", "a", "t2"),
+                task("t2", "echo", "b", "t1"),
+                task("t3", "echo", "c", "t2"),
+                task("t4", "echo", "d")));
+        // t1、t2 互相依赖，t3 依赖环中的节点，都不能执行
+        Assertions.assertEquals(List.of("t4"), ids(ordered));
+    }
+
+    @Test
+    void topologicalOrderIgnoresSelfAndUnknownDependencies() {
+        List<PlanExecuteAgent.PlanTask> ordered = PlanExecuteAgent.topologicalOrder(byId(
+                task("t1", "echo", "a", "t1"),
+                task("t2", "echo", "b", "t9")));
+        Assertions.assertEquals(List.of("t1", "t2"), ids(ordered));
+    }
+
+    @Test
+    void resolveArgumentsSubstitutesUpstreamResults() {
+        Map<String, Object> arguments = new LinkedHashMap<>();
+        arguments.put("text", "前{{t1}}中{{t2}}后{{t9}}");
+        arguments.put("count", 3);
+        Map<String, Object> resolved = PlanExecuteAgent.resolveArguments(arguments,
+                Map.of("t1", "A", "t2", "B"));
+        Assertions.assertEquals("前A中B后{{t9}}", resolved.get("text"));
+        Assertions.assertEquals(3, resolved.get("count"));
+        // 原始参数不被修改
+        Assertions.assertEquals("前{{t1}}中{{t2}}后{{t9}}", arguments.get("text"));
+        Assertions.assertEquals(Map.of(), PlanExecuteAgent.resolveArguments(null, Map.of()));
+    }
+
+    @Test
+    void executeGraphPassesResultsDownstream() {
+        StubTools tools = new StubTools();
+        List<String> results = agent(tools, 4).executeGraph(List.of(
+                task("t2", "echo", "收到{{t1}}", "t1"),
+                task("t1", "echo", "源")));
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertTrue(results.get(1).contains("echo:源"), results.get(1));
+        Assertions.assertTrue(results.get(0).contains("收到"), results.get(0));
+        Assertions.assertTrue(results.get(0).contains("echo:源"), results.get(0));
+    }
+
+    @Test
+    void executeGraphReportsCyclesDuplicatesAndUnknownTools() {
+        StubTools tools = new StubTools();
+        List<String> results = agent(tools, 4).executeGraph(List.of(
+                task("t1", "echo", "a", "t2"),
+                task("t2", "echo", "b", "t1"),
+                task("t3", "echo", "c"),
+                task("t3", "echo", "重复"),
+                task("t4", "missingTool", "d"),
+                task("t5", "echo", "self", "t5")));
+        Assertions.assertEquals(6, results.size());
+        Assertions.assertTrue(results.get(0).startsWith("Error"), results.get(0));
+        Assertions.assertTrue(results.get(1).startsWith("Error"), results.get(1));
+        Assertions.assertTrue(results.get(2).contains("echo:c"), results.get(2));
+        Assertions.assertTrue(results.get(3).contains("重复"), results.get(3));
+        Assertions.assertTrue(results.get(3).startsWith("Error"), results.get(3));
+        Assertions.assertTrue(results.get(4).startsWith("Error"), results.get(4));
+        Assertions.assertTrue(results.get(5).contains("echo:self"), results.get(5));
+        Assertions.assertFalse(tools.calls.contains("重复"));
+    }
+
+    @Test
+    void executeGraphRespectsParallelLimit() {
+        StubTools tools = new StubTools();
+        List<PlanExecuteAgent.PlanTask> tasks = List.of(
+                task("t1", "probe", "1"), task("t2", "probe", "2"), task("t3", "probe", "3"),
+                task("t4", "probe", "4"), task("t5", "probe", "5"), task("t6", "probe", "6"));
+        long start = System.currentTimeMillis();
+        List<String> results = agent(tools, 2).executeGraph(tasks);
+        long elapsed = System.currentTimeMillis() - start;
+        Assertions.assertEquals(6, results.size());
+        Assertions.assertEquals(2, tools.maxInFlight.get());
+        // 6 个 200ms 的调用两两并行，至少需要三轮
+        Assertions.assertTrue(elapsed >= 550, "elapsed " + elapsed);
+    }
+
+    @Test
+    void interruptCancelsRunningTools() throws Exception {
+        StubTools tools = new StubTools();
+        PlanExecuteAgent agent = agent(tools, 4);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread runner = new Thread(() -> {
+            try {
+                agent.executeGraph(List.of(task("t1", "block", "a"), task("t2", "echo", "b", "t1")));
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        runner.start();
+        Assertions.assertTrue(tools.blockStarted.await(5, TimeUnit.SECONDS));
+        runner.interrupt();
+        runner.join(5_000);
+        Assertions.assertFalse(runner.isAlive());
+        Assertions.assertInstanceOf(CancellationException.class, failure.get());
+        Assertions.assertTrue(tools.blockInterrupted.await(5, TimeUnit.SECONDS));
+        // 依赖被取消的下游节点不会执行
+        Assertions.assertFalse(tools.calls.contains("b"));
+    }
+
+    @Test
+    void stepPlansExecutesAndAnswers() {
+        StubTools tools = new StubTools();
+        StubPlanner planner = new StubPlanner(
+                """
+                {"answer": "", "tasks": [
+                  {"id": "t1", "tool": "echo", "arguments": {"text": "Java"}, "dependsOn": []},
+                  {"id": "t2", "tool": "echo", "arguments": {"text": "基于{{t1}}"}, "dependsOn": ["t1"]}
+                ]}
+                """,
+                """
+                {"answer": "学习计划已完成", "tasks": []}
+                """);
+        PlanExecuteAgent agent = agent(tools, planner, 4, TokenBudgetContextPolicy.defaults());
+        agent.getMessageList().add(new UserMessage("帮我制定 Java 学习计划"));
+
+        agent.step();
+        Assertions.assertEquals(2, tools.calls.size());
+        Assertions.assertTrue(tools.calls.get(1).startsWith("基于") && tools.calls.get(1).contains("echo:Java"),
+                tools.calls.get(1));
+        Assertions.assertNotEquals(AgentState.FINISHED, agent.getState());
+
+        agent.step();
+        Assertions.assertEquals(AgentState.FINISHED, agent.getState());
+        List<Message> messages = agent.getMessageList();
+        Assertions.assertEquals("学习计划已完成", messages.get(messages.size() - 1).getText());
+        String secondPrompt = planner.prompts.get(1);
+        Assertions.assertTrue(secondPrompt.contains("已执行的工具调用及结果"), secondPrompt);
+        Assertions.assertTrue(secondPrompt.contains("echo:Java"), secondPrompt);
+    }
+
+    @Test
+    void planningContextStaysWithinBudget() {
+        StubTools tools = new StubTools();
+        String[] replies = new String[6];
+        for (int i = 0; i < 5; i++) {
+            replies[i] = "{\"answer\": \"\", \"tasks\": [{\"id\": \"t1\", \"tool\": \"bigResult\", "
+                    + "\"arguments\": {\"seed\": \"round" + i + "\"}, \"dependsOn\": []}]}";
+        }
+        replies[5] = "{\"answer\": \"完成\", \"tasks\": []}";
+        StubPlanner planner = new StubPlanner(replies);
+        PlanExecuteAgent agent = agent(tools, planner, 4, new TokenBudgetContextPolicy(1000, 200, 50));
+        agent.getMessageList().add(new UserMessage("整理资料"));
+        for (int i = 0; i < 6; i++) {
+            agent.step();
+        }
+        Assertions.assertEquals(AgentState.FINISHED, agent.getState());
+        // 5 轮共约 50 万个字符的工具结果，发给规划器的只有按预算截断后的一小部分
+        String lastPrompt = planner.prompts.get(5);
+        long resultChars = lastPrompt.chars().filter(c -> c == 'x').count();
+        Assertions.assertTrue(resultChars < 2_000, "result chars " + resultChars);
+        Assertions.assertTrue(lastPrompt.contains("round4"), "最近一轮的结果必须保留");
+        Assertions.assertTrue(lastPrompt.contains("整理资料"), "原始任务必须保留");
+    }
+}
@@ -0,0 +1,83 @@
+package com.zpark.learningagent.agent;
+
+import com.zpark.learningagent.agent.model.AgentState;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+class ReActAgentTest {
+
+    /**
+     * 按预设的签名和回复文本逐步决策，记录实际执行了哪些工具调用
+     */
+    static class ScriptedAgent extends ReActAgent {
+        private final Iterator<String> signatures;
+        private final String text;
+        private final List<String> executed = new ArrayList<>();
+        private String signature;
+
+        ScriptedAgent(String text, String... signatures) {
+            this.text = text;
+            this.signatures = List.of(signatures).iterator();
+        }
+
+        @Override
+        public boolean think() {
+            signature = signatures.next();
+            return true;
+        }
+
+        @Override
+        public String act() {
+            executed.add(signature);
+            return "ok";
+        }
+
+        @Override
+        protected String decisionSignature() {
+            return signature;
+        }
+
+        @Override
+        protected String decisionText() {
+            return text;
+        }
+    }
+
+    private static long correctivePrompts(ReActAgent agent) {
+        return agent.getMessageList().stream().filter(message -> message instanceof UserMessage).count();
+    }
+
+    @Test
+    void similarTextDoesNotSkipNewToolCalls() {
+        ScriptedAgent agent = new ScriptedAgent("让我继续搜索相关资料，然后再整理答案。",
+                "searchWeb({\"query\":\"java\"})",
+                "searchWeb({\"query\":\"spring\"})",
+                "searchWeb({\"query\":\"kryo\"})");
+        agent.step();
+        agent.step();
+        agent.step();
+        Assertions.assertEquals(List.of(
+                "searchWeb({\"query\":\"java\"})",
+                "searchWeb({\"query\":\"spring\"})",
+                "searchWeb({\"query\":\"kryo\"})"), agent.executed);
+        Assertions.assertNotEquals(AgentState.FINISHED, agent.getState());
+        // 相似的开场白仍然会提醒模型
+        Assertions.assertEquals(2, correctivePrompts(agent));
+    }
+
+    @Test
+    void repeatedSuccessfulToolCallIsSkipped() {
+        ScriptedAgent agent = new ScriptedAgent(null,
+                "searchWeb({\"query\":\"java\"})",
+                "searchWeb({\"query\":\"java\"})");
+        agent.step();
+        Assertions.assertEquals("跳过重复的工具调用", agent.step());
+        Assertions.assertEquals(List.of("searchWeb({\"query\":\"java\"})"), agent.executed);
+        Assertions.assertEquals(1, correctivePrompts(agent));
+    }
+}
@@ -0,0 +1,84 @@
+package com.zpark.learningagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class StagnationDetectorTest {
+
+    @Test
+    void repeatedToolCallIsCorrectedThenStopped() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE,
+                detector.onDecision("searchWeb({\"query\":\"java\"})", null).action());
+        detector.onOutcome(true);
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE,
+                detector.onDecision("scrapeWebPage({\"url\":\"a\"})", null).action());
+        detector.onOutcome(true);
+        StagnationDetector.Verdict verdict = detector.onDecision("searchWeb({\"query\":\"java\"})", null);
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, verdict.action());
+        Assertions.assertTrue(verdict.repeatedCall());
+        Assertions.assertEquals(StagnationDetector.Action.STOP,
+                detector.onDecision("searchWeb({\"query\":\"java\"})", null).action());
+    }
+
+    @Test
+    void retryingFailedToolCallIsNotARepeat() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        String signature = "downloadResource({\"url\":\"https://example.com/a.pdf\"})";
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onDecision(signature, null).action());
+        detector.onOutcome(false, false);
+        // 上一次失败了，原样重试是合理的
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onDecision(signature, null).action());
+        detector.onOutcome(true, true);
+        // 已经成功过，再次调用才算重复
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, detector.onDecision(signature, null).action());
+    }
+
+    @Test
+    void partiallyFailedStepIsNotRemembered() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        String signature = "searchWeb({\"query\":\"java\"});scrapeWebPage({\"url\":\"a\"})";
+        detector.onDecision(signature, null);
+        // 有进展但不是全部成功：不计入重复历史
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onOutcome(true, false).action());
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onDecision(signature, null).action());
+    }
+
+    @Test
+    void nearIdenticalTextCountsAsRepeat() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        detector.onDecision(null, "Java 的学习路线可以分为基础语法、面向对象、集合框架和并发编程四个阶段。");
+        StagnationDetector.Verdict verdict =
+                detector.onDecision(null, "Java 的学习路线可以分为基础语法、面向对象、集合框架和并发编程四个阶段！");
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, verdict.action());
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE,
+                detector.onDecision(null, "下面推荐三本入门书籍，并说明各自适合的读者和阅读顺序。").action());
+    }
+
+    @Test
+    void similarTextWithNewToolCallsIsOnlyCorrected() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        String preamble = "让我继续搜索相关资料，然后再整理答案。";
+        detector.onDecision("searchWeb({\"query\":\"java\"})", preamble);
+        detector.onOutcome(true);
+        StagnationDetector.Verdict verdict = detector.onDecision("searchWeb({\"query\":\"spring\"})", preamble);
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, verdict.action());
+        Assertions.assertFalse(verdict.repeatedCall());
+        detector.onOutcome(true);
+        // 同样的开场白不会累计到强制结束
+        verdict = detector.onDecision("searchWeb({\"query\":\"kryo\"})", preamble);
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, verdict.action());
+        Assertions.assertFalse(verdict.repeatedCall());
+    }
+
+    @Test
+    void consecutiveNoProgressStepsStopTheRun() {
+        StagnationDetector detector = StagnationDetector.defaults();
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onOutcome(false).action());
+        Assertions.assertEquals(StagnationDetector.Action.CORRECT, detector.onOutcome(false).action());
+        Assertions.assertEquals(StagnationDetector.Action.STOP, detector.onOutcome(false).action());
+        detector.reset();
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onOutcome(false).action());
+        Assertions.assertEquals(StagnationDetector.Action.CONTINUE, detector.onOutcome(true).action());
+    }
+}
@@ -0,0 +1,96 @@
+package com.zpark.learningagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+
+class ToolCallAgentTest {
+
+    private static ChatResponse textChunk(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static ChatResponse toolChunk(String id, String name, String arguments) {
+        AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall(id, "function", name, arguments);
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), List.of(toolCall)))));
+    }
+
+    private static List<AssistantMessage.ToolCall> toolCalls(ChatResponse response) {
+        return response.getResult().getOutput().getToolCalls();
+    }
+
+    @Test
+    void incrementalFragmentsAreConcatenated() {
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[0]);
+        StringBuilder emitted = new StringBuilder();
+        agent.setStreamSink(emitted::append);
+        // 首个片段带 id 和名称，后续片段只带参数增量
+        ChatResponse response = agent.collectStream(Flux.just(
+                textChunk("先"),
+                textChunk("查一下"),
+                toolChunk("call_1", "searchWeb", "{\"query\":"),
+                toolChunk("", "", "\"Java 并发"),
+                toolChunk(null, null, "\"}")));
+        Assertions.assertEquals("先查一下", emitted.toString());
+        Assertions.assertEquals("先查一下", response.getResult().getOutput().getText());
+        List<AssistantMessage.ToolCall> calls = toolCalls(response);
+        Assertions.assertEquals(1, calls.size());
+        Assertions.assertEquals("call_1", calls.get(0).id());
+        Assertions.assertEquals("searchWeb", calls.get(0).name());
+        Assertions.assertEquals("{\"query\":\"Java 并发\"}", calls.get(0).arguments());
+    }
+
+    @Test
+    void cumulativeFragmentsReplaceEarlierOnes() {
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[0]);
+        // 每个片段都是到目前为止的完整参数
+        ChatResponse response = agent.collectStream(Flux.just(
+                toolChunk("call_1", "searchWeb", "{\"qu"),
+                toolChunk("call_1", "searchWeb", "{\"query\":\"Ja"),
+                toolChunk("call_1", "searchWeb", "{\"query\":\"Java\"}")));
+        List<AssistantMessage.ToolCall> calls = toolCalls(response);
+        Assertions.assertEquals(1, calls.size());
+        Assertions.assertEquals("{\"query\":\"Java\"}", calls.get(0).arguments());
+    }
+
+    @Test
+    void interleavedParallelCallsAreKeptApart() {
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[0]);
+        ChatResponse response = agent.collectStream(Flux.just(
+                toolChunk("call_a", "searchWeb", "{\"query\":"),
+                toolChunk("call_b", "downloadResource", "{\"url\":"),
+                toolChunk("call_a", null, "\"Java\"}"),
+                toolChunk("call_b", null, "\"https://example.com/a.pdf\"}")));
+        List<AssistantMessage.ToolCall> calls = toolCalls(response);
+        Assertions.assertEquals(2, calls.size());
+        Assertions.assertEquals("call_a", calls.get(0).id());
+        Assertions.assertEquals("searchWeb", calls.get(0).name());
+        Assertions.assertEquals("{\"query\":\"Java\"}", calls.get(0).arguments());
+        Assertions.assertEquals("call_b", calls.get(1).id());
+        Assertions.assertEquals("downloadResource", calls.get(1).name());
+        Assertions.assertEquals("{\"url\":\"https://example.com/a.pdf\"}", calls.get(1).arguments());
+    }
+
+    @Test
+    void interruptStopsConsumingTheStream() {
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[0]);
+        StringBuilder emitted = new StringBuilder();
+        agent.setStreamSink(chunk -> {
+            emitted.append(chunk);
+            agent.interrupt();
+        });
+        ChatResponse response = agent.collectStream(Flux.just(
+                textChunk("第一段"),
+                textChunk("第二段"),
+                toolChunk("call_1", "searchWeb", "{}")));
+        Assertions.assertEquals("第一段", emitted.toString());
+        Assertions.assertTrue(toolCalls(response).isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.zpark.learningagent.agent.context;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class TokenBudgetContextPolicyTest {
+
+    private static final String STEP_PROMPT = "请选择下一步要使用的工具";
+
+    private static List<Message> toolStep(String id, String name, String arguments, String output) {
+        AssistantMessage call = new AssistantMessage("", Map.of(),
+                List.of(new AssistantMessage.ToolCall(id, "function", name, arguments)));
+        ToolResponseMessage response = new ToolResponseMessage(
+                List.of(new ToolResponseMessage.ToolResponse(id, name, output)));
+        return List.of(call, response);
+    }
+
+    @Test
+    void keepsSingleStepPromptAndDropsSupersededSteps() {
+        List<Message> history = new ArrayList<>();
+        history.add(new UserMessage("帮我制定 Java 学习计划"));
+        history.add(new UserMessage(STEP_PROMPT));
+        history.addAll(toolStep("1", "searchWeb", "{\"query\":\"java\"}", "结果一"));
+        history.add(new UserMessage(STEP_PROMPT));
+        history.addAll(toolStep("2", "searchWeb", "{\"query\":\"java\"}", "结果二"));
+
+        List<Message> messages = TokenBudgetContextPolicy.defaults().apply(history, STEP_PROMPT);
+
+        Assertions.assertEquals(4, messages.size());
+        Assertions.assertEquals("帮我制定 Java 学习计划", messages.get(0).getText());
+        Assertions.assertEquals("结果二", ((ToolResponseMessage) messages.get(2)).getResponses().get(0).responseData());
+        Assertions.assertEquals(STEP_PROMPT, messages.get(3).getText());
+    }
+
+    @Test
+    void truncatesLargeHtmlToolOutput() {
+        String html = "<html><body>" + "<p>学习资源内容</p>".repeat(2000) + "</body></html>";
+        List<Message> history = new ArrayList<>();
+        history.add(new UserMessage("抓取网页"));
+        history.addAll(toolStep("1", "scrapeWebPage", "{\"url\":\"https://example.com\"}", html));
+
+        List<Message> messages = new TokenBudgetContextPolicy(2000, 500, 100).apply(history, STEP_PROMPT);
+
+        String output = ((ToolResponseMessage) messages.get(2)).getResponses().get(0).responseData();
+        Assertions.assertFalse(output.contains("<p>"));
+        Assertions.assertTrue(output.length() < 1000);
+    }
+
+    @Test
+    void dropsOldestStepsOverBudget() {
+        List<Message> history = new ArrayList<>();
+        history.add(new UserMessage("任务"));
+        for (int i = 0; i < 20; i++) {
+            history.addAll(toolStep(String.valueOf(i), "searchWeb", "{\"query\":\"q" + i + "\"}", "结果".repeat(150)));
+        }
+
+        List<Message> messages = new TokenBudgetContextPolicy(1000, 400, 400).apply(history, STEP_PROMPT);
+
+        Assertions.assertEquals("任务", messages.get(0).getText());
+        Assertions.assertTrue(messages.size() < history.size());
+        ToolResponseMessage last = (ToolResponseMessage) messages.get(messages.size() - 2);
+        Assertions.assertEquals("19", last.getResponses().get(0).id());
+    }
+}
@@ -0,0 +1,41 @@
+package com.zpark.learningagent.agent.session;
+
+import com.zpark.learningagent.agent.BaseAgent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LocalAgentSessionRegistryTest {
+
+    static class IdleAgent extends BaseAgent {
+        @Override
+        public String step() {
+            return "ok";
+        }
+    }
+
+    @Test
+    void interruptFindsRegisteredAgentOnce() {
+        LocalAgentSessionRegistry registry = new LocalAgentSessionRegistry();
+        IdleAgent agent = new IdleAgent();
+        registry.register("s1", agent);
+        Assertions.assertEquals(1, registry.stats().local());
+
+        Assertions.assertTrue(registry.interrupt("s1"));
+        Assertions.assertTrue(agent.isInterrupted());
+        Assertions.assertFalse(registry.interrupt("s1"));
+    }
+
+    @Test
+    void unregisterKeepsNewerAgentWithSameSessionId() {
+        LocalAgentSessionRegistry registry = new LocalAgentSessionRegistry();
+        IdleAgent first = new IdleAgent();
+        IdleAgent second = new IdleAgent();
+        registry.register("s1", first);
+        registry.register("s1", second);
+        registry.unregister("s1", first);
+
+        Assertions.assertTrue(registry.interrupt("s1"));
+        Assertions.assertTrue(second.isInterrupted());
+        Assertions.assertFalse(first.isInterrupted());
+    }
+}
@@ -0,0 +1,87 @@
+package com.zpark.learningagent.app;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ChatRequestCoalescerTest {
+
+    @Test
+    void concurrentCallsShareOneUpstreamCall() throws Exception {
+        ChatRequestCoalescer coalescer = new ChatRequestCoalescer(true);
+        AtomicInteger upstream = new AtomicInteger();
+        AtomicInteger shared = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer.call(() -> "k", () -> {
+            upstream.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "你好，我是学习规划导师";
+        }, content -> shared.incrementAndGet()));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> coalescer.call(() -> "k", () -> {
+            upstream.incrementAndGet();
+            return "不应该被调用";
+        }, content -> shared.incrementAndGet()));
+        Thread.sleep(100);
+        release.countDown();
+
+        Assertions.assertEquals("你好，我是学习规划导师", leader.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("你好，我是学习规划导师", follower.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, upstream.get());
+        Assertions.assertEquals(1, shared.get());
+        Assertions.assertEquals(0, coalescer.stats().inFlight());
+    }
+
+    @Test
+    void concurrentStreamsFanOutFromOneUpstream() {
+        ChatRequestCoalescer coalescer = new ChatRequestCoalescer(true);
+        AtomicInteger upstream = new AtomicInteger();
+        AtomicReference<String> sharedContent = new AtomicReference<>();
+        Flux<String> source = Flux.just("你", "好", "！").delayElements(Duration.ofMillis(50))
+                .doOnSubscribe(subscription -> upstream.incrementAndGet());
+
+        Flux<String> first = coalescer.stream(() -> "k", () -> source, sharedContent::set);
+        Flux<String> second = coalescer.stream(() -> "k", () -> source, sharedContent::set);
+        List<List<String>> results = Flux.merge(first.collectList(), second.collectList())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        Assertions.assertEquals(List.of(List.of("你", "好", "！"), List.of("你", "好", "！")), results);
+        Assertions.assertEquals(1, upstream.get());
+        Assertions.assertEquals("你好！", sharedContent.get());
+    }
+
+    @Test
+    void disabledCoalescerNeverBuildsTheKey() {
+        ChatRequestCoalescer coalescer = new ChatRequestCoalescer(false);
+        AtomicInteger keyBuilds = new AtomicInteger();
+        String content = coalescer.call(() -> {
+            keyBuilds.incrementAndGet();
+            return "k";
+        }, () -> "回复", shared -> Assertions.fail("关闭合并时不会共享结果"));
+        List<String> streamed = coalescer.stream(() -> {
+            keyBuilds.incrementAndGet();
+            return "k";
+        }, () -> Flux.just("流", "式"), shared -> Assertions.fail("关闭合并时不会共享结果"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        Assertions.assertEquals("回复", content);
+        Assertions.assertEquals(List.of("流", "式"), streamed);
+        Assertions.assertEquals(0, keyBuilds.get());
+    }
+}
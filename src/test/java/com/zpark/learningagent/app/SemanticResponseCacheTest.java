@@ -0,0 +1,55 @@
+package com.zpark.learningagent.app;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+class SemanticResponseCacheTest {
+
+    // 用固定的向量模拟向量模型：相近的提问映射到相近的向量
+    private static final Map<String, float[]> EMBEDDINGS = Map.of(
+            "如何制定学习计划", new float[]{1f, 0f, 0f},
+            "怎么制定学习计划", new float[]{0.98f, 0.05f, 0f},
+            "推荐几本 Java 书", new float[]{0f, 1f, 0f});
+
+    private static SemanticResponseCache cache(int maxEntries, Duration ttl) {
+        return new SemanticResponseCache(EMBEDDINGS::get, new SimpleMeterRegistry(), true, 0.92, maxEntries, ttl);
+    }
+
+    @Test
+    void paraphraseHitsAndUnrelatedQuestionMisses() {
+        SemanticResponseCache cache = cache(10, Duration.ofMinutes(5));
+        SemanticResponseCache.Lookup first = cache.lookup("rag", "如何制定学习计划");
+        Assertions.assertFalse(first.hit());
+        cache.put("rag", "如何制定学习计划", first, "先明确目标，再拆分阶段");
+
+        SemanticResponseCache.Lookup paraphrase = cache.lookup("rag", "怎么制定学习计划");
+        Assertions.assertTrue(paraphrase.hit());
+        Assertions.assertEquals("先明确目标，再拆分阶段", paraphrase.answer());
+        Assertions.assertFalse(cache.lookup("rag", "推荐几本 Java 书").hit());
+        // 不同模式互不共享
+        Assertions.assertFalse(cache.lookup("chat", "怎么制定学习计划").hit());
+
+        SemanticResponseCache.Stats stats = cache.stats().get("rag");
+        Assertions.assertEquals(1, stats.hits());
+        Assertions.assertEquals(2, stats.misses());
+        Assertions.assertEquals(1, stats.entries());
+    }
+
+    @Test
+    void expiredAndEvictedEntriesMiss() throws Exception {
+        SemanticResponseCache expiring = cache(10, Duration.ofMillis(50));
+        expiring.put("rag", "如何制定学习计划", expiring.lookup("rag", "如何制定学习计划"), "回答");
+        Thread.sleep(100);
+        Assertions.assertFalse(expiring.lookup("rag", "怎么制定学习计划").hit());
+
+        SemanticResponseCache small = cache(1, Duration.ofMinutes(5));
+        small.put("rag", "如何制定学习计划", small.lookup("rag", "如何制定学习计划"), "计划");
+        small.put("rag", "推荐几本 Java 书", small.lookup("rag", "推荐几本 Java 书"), "书单");
+        Assertions.assertFalse(small.lookup("rag", "怎么制定学习计划").hit());
+        Assertions.assertTrue(small.lookup("rag", "推荐几本 Java 书").hit());
+    }
+}
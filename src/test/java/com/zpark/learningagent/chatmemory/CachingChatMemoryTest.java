@@ -0,0 +1,99 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingChatMemoryTest {
+
+    @Test
+    void hitDoesNotTouchDelegate() throws Exception {
+        CountingChatMemory backend = new CountingChatMemory();
+        CachingChatMemory memory = new CachingChatMemory(backend, 10, 1024 * 1024, 50, 60_000, 16);
+        memory.add("chat-1", List.of(new UserMessage("你好")));
+        memory.get("chat-1", 10);
+        memory.get("chat-1", 10);
+        Assertions.assertEquals(1, backend.reads.get());
+        Assertions.assertEquals(0, backend.writes.get());
+
+        CachingChatMemory.CacheStats stats = memory.stats();
+        Assertions.assertEquals(1, stats.misses());
+        Assertions.assertEquals(2, stats.hits());
+        Assertions.assertEquals(1, stats.dirtyEntries());
+
+        // 关闭时刷盘
+        memory.close();
+        Assertions.assertEquals(1, backend.writes.get());
+        Assertions.assertEquals(1, backend.get("chat-1", 10).size());
+    }
+
+    @Test
+    void evictionFlushesDirtyConversation() {
+        CountingChatMemory backend = new CountingChatMemory();
+        CachingChatMemory memory = new CachingChatMemory(backend, 2, 1024 * 1024, 50, 60_000, 16);
+        for (int i = 0; i < 3; i++) {
+            memory.add("chat-" + i, List.of(new UserMessage("消息" + i)));
+        }
+        Assertions.assertEquals(1, memory.stats().evictions());
+        List<Message> evicted = backend.get("chat-0", 10);
+        Assertions.assertEquals("消息0", evicted.get(0).getText());
+        // 被淘汰的会话重新加载后内容完整
+        Assertions.assertEquals(1, memory.get("chat-0", 10).size());
+    }
+
+    @Test
+    void sweepInvalidatesCachedConversation() throws Exception {
+        CountingChatMemory backend = new CountingChatMemory();
+        CachingChatMemory memory = new CachingChatMemory(backend, 10, 1024 * 1024, 50, 60_000, 16);
+        memory.add("chat-1", List.of(new UserMessage("你好")));
+        backend.expired = "chat-1";
+        Assertions.assertEquals(Set.of("chat-1"), memory.sweep(Duration.ofDays(7), 0));
+        // 清理前脏数据先写入底层；清理后缓存不再返回已删除的历史，关闭时也不会写回
+        Assertions.assertEquals(1, backend.writes.get());
+        Assertions.assertTrue(memory.get("chat-1", 10).isEmpty());
+        memory.close();
+        Assertions.assertTrue(backend.get("chat-1", 10).isEmpty());
+    }
+
+    private static class CountingChatMemory implements ChatMemory, SweepableChatMemory {
+        private final ChatMemory store = new InMemoryChatMemory();
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger writes = new AtomicInteger();
+        // 下次清理时删除的会话
+        private String expired;
+
+        @Override
+        public Set<String> sweep(Duration idleTtl, long maxBytesPerConversation) {
+            if (expired == null) {
+                return Set.of();
+            }
+            store.clear(expired);
+            return Set.of(expired);
+        }
+
+        @Override
+        public void add(String conversationId, List<Message> messages) {
+            writes.incrementAndGet();
+            store.add(conversationId, messages);
+        }
+
+        @Override
+        public List<Message> get(String conversationId, int lastN) {
+            reads.incrementAndGet();
+            return store.get(conversationId, lastN);
+        }
+
+        @Override
+        public void clear(String conversationId) {
+            store.clear(conversationId);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class FileBasedChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentAddKeepsAllMessages() throws Exception {
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            String chatId = "chat-" + (i % 4);
+            int index = i;
+            executor.submit(() -> memory.add(chatId, new UserMessage("消息" + index)));
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        for (int i = 0; i < 4; i++) {
+            List<?> messages = memory.get("chat-" + i, 1000);
+            Assertions.assertEquals(50, messages.size());
+        }
+    }
+
+    @Test
+    void clearAndShardedLayout() throws Exception {
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        memory.add("chat-clear", new UserMessage("你好"));
+        // 会话文件不在根目录下，而是在分片子目录中
+        Assertions.assertFalse(Files.exists(tempDir.resolve("chat-clear.kryo")));
+        Assertions.assertEquals(1, memory.get("chat-clear", 10).size());
+        memory.clear("chat-clear");
+        Assertions.assertTrue(memory.get("chat-clear", 10).isEmpty());
+    }
+
+    @Test
+    void concurrentReadersMigrateLegacyFile() throws Exception {
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        for (int round = 0; round < 20; round++) {
+            String chatId = "chat-legacy-" + round;
+            memory.add(chatId, new UserMessage("旧消息"));
+            // 挪回旧的平铺目录，模拟分片之前写下的会话文件
+            Path sharded = ConversationPaths.shardDir(tempDir, chatId).resolve(chatId + ".kryo");
+            Files.move(sharded, tempDir.resolve(chatId + ".kryo"));
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> reads = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+                for (int i = 0; i < 8; i++) {
+                    reads.add(executor.submit(() -> {
+                        start.await();
+                        return memory.get(chatId, 10).size();
+                    }));
+                }
+                start.countDown();
+                for (Future<Integer> read : reads) {
+                    Assertions.assertEquals(1, read.get());
+                }
+            }
+            Assertions.assertTrue(Files.exists(sharded));
+        }
+    }
+
+    @Test
+    void sweepTrimsOversizedConversation() {
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        for (int i = 0; i < 100; i++) {
+            memory.add("chat-big", new UserMessage("这是一条比较长的学习记录消息，编号" + i));
+        }
+        memory.sweep(Duration.ZERO, 2048);
+        List<?> remaining = memory.get("chat-big", 1000);
+        Assertions.assertTrue(remaining.size() < 100);
+        Assertions.assertFalse(remaining.isEmpty());
+    }
+
+    @Test
+    void saveLeavesNoTempFiles() throws Exception {
+        try (FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString(), true, 2, true)) {
+            memory.add("chat-durable", new UserMessage("第一条"));
+            memory.add("chat-durable", new UserMessage("第二条"));
+            Assertions.assertEquals(2, memory.get("chat-durable", 10).size());
+        }
+        try (var paths = Files.walk(tempDir)) {
+            List<Path> files = paths.filter(Files::isRegularFile).toList();
+            Assertions.assertEquals(1, files.size());
+            Assertions.assertTrue(files.get(0).toString().endsWith(".kryo"));
+            Assertions.assertTrue(MessageFileFormat.isV2(files.get(0)));
+        }
+    }
+}
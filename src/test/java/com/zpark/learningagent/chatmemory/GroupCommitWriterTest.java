@@ -0,0 +1,86 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+class GroupCommitWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentWritesShareBatches() throws Exception {
+        int writers = 32;
+        // 提交窗口足够长，同时到达的写入应当合并成少数几批
+        try (GroupCommitWriter writer = new GroupCommitWriter(50, true)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+                for (int i = 0; i < writers; i++) {
+                    Path target = tempDir.resolve("shard-" + (i % 4)).resolve("chat-" + i + ".kryo");
+                    byte[] content = ("内容" + i).getBytes(StandardCharsets.UTF_8);
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        writer.write(target, content);
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            for (int i = 0; i < writers; i++) {
+                Path target = tempDir.resolve("shard-" + (i % 4)).resolve("chat-" + i + ".kryo");
+                Assertions.assertEquals("内容" + i, Files.readString(target, StandardCharsets.UTF_8));
+            }
+            Assertions.assertEquals(writers, writer.fileCount());
+            Assertions.assertTrue(writer.batchCount() < writers, "batches=" + writer.batchCount());
+        }
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            Assertions.assertTrue(paths.noneMatch(path -> path.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    void failedFileDoesNotFailTheBatch() throws Exception {
+        // 父路径是普通文件，这个目标一定写不进去
+        Path blocker = tempDir.resolve("blocker");
+        Files.writeString(blocker, "x");
+        Path bad = blocker.resolve("chat-bad.kryo");
+        Path good = tempDir.resolve("chat-good.kryo");
+        try (GroupCommitWriter writer = new GroupCommitWriter(50, true)) {
+            CountDownLatch start = new CountDownLatch(1);
+            try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+                Future<?> badWrite = executor.submit(() -> {
+                    start.await();
+                    writer.write(bad, new byte[]{1});
+                    return null;
+                });
+                Future<?> goodWrite = executor.submit(() -> {
+                    start.await();
+                    writer.write(good, new byte[]{2});
+                    return null;
+                });
+                start.countDown();
+                goodWrite.get();
+                Exception failure = Assertions.assertThrows(Exception.class, badWrite::get);
+                Assertions.assertInstanceOf(IOException.class, failure.getCause());
+            }
+        }
+        Assertions.assertArrayEquals(new byte[]{2}, Files.readAllBytes(good));
+    }
+}
@@ -0,0 +1,60 @@
+package com.zpark.learningagent.chatmemory;
+
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@SpringBootTest
+class JdbcChatMemoryTest {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void addAndGetLastN() {
+        // 每页 3 行，验证跨页的键集分页
+        JdbcChatMemory memory = new JdbcChatMemory(jdbcTemplate, "chat_memory", 3, true);
+        String chatId = UUID.randomUUID().toString();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(new UserMessage("问题" + i));
+            messages.add(new AssistantMessage("回答" + i));
+        }
+        memory.add(chatId, messages);
+
+        List<Message> last = memory.get(chatId, 7);
+        Assertions.assertEquals(7, last.size());
+        Assertions.assertEquals("回答6", last.get(0).getText());
+        Assertions.assertEquals("回答9", last.get(6).getText());
+        Assertions.assertEquals(20, memory.get(chatId, 100).size());
+
+        memory.clear(chatId);
+        Assertions.assertTrue(memory.get(chatId, 10).isEmpty());
+    }
+
+    @Test
+    void sweepKeepsNewestMessageOverQuota() {
+        JdbcChatMemory memory = new JdbcChatMemory(jdbcTemplate, "chat_memory", 3, true);
+        String chatId = UUID.randomUUID().toString();
+        memory.add(chatId, List.of(new UserMessage("问题0"), new AssistantMessage("回答0")));
+        // 最新的一条消息单独就超过配额
+        memory.add(chatId, List.of(new AssistantMessage("长回答".repeat(500))));
+
+        Assertions.assertTrue(memory.sweep(Duration.ZERO, 100).contains(chatId));
+        List<Message> remaining = memory.get(chatId, 10);
+        Assertions.assertEquals(1, remaining.size());
+        Assertions.assertEquals("长回答".repeat(500), remaining.get(0).getText());
+
+        memory.clear(chatId);
+    }
+}
@@ -0,0 +1,98 @@
+package com.zpark.learningagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+class MessageFileFormatTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writeAndReadCompressedFrames() throws Exception {
+        List<Message> messages = List.of(new UserMessage("你好".repeat(500)), new AssistantMessage("好的"));
+        Path file = tempDir.resolve("chat.kryo");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            MessageFileFormat.write(out, messages, true);
+        }
+        Assertions.assertTrue(MessageFileFormat.isV2(file));
+        List<Message> read = MessageFileFormat.read(file);
+        Assertions.assertEquals(2, read.size());
+        Assertions.assertEquals(messages.get(0).getText(), read.get(0).getText());
+        Assertions.assertEquals("好的", read.get(1).getText());
+    }
+
+    @Test
+    void corruptedFrameFailsRead() throws Exception {
+        List<Message> messages = List.of(new UserMessage("第一条"), new UserMessage("第二条"));
+        Path file = tempDir.resolve("chat.kryo");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            MessageFileFormat.write(out, messages, false);
+        }
+        // 改坏最后一个字节，第二帧的 CRC 校验失败
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        Assertions.assertThrows(IOException.class, () -> MessageFileFormat.read(file));
+    }
+
+    @Test
+    void corruptedFileIsNotOverwritten() throws Exception {
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        String chatId = "chat-corrupt";
+        memory.add(chatId, List.of(new UserMessage("第一条"), new UserMessage("第二条")));
+        Path file;
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            file = paths.filter(p -> p.getFileName().toString().equals(chatId + ".kryo")).findFirst().orElseThrow();
+        }
+        // 截掉最后一帧的一部分
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        byte[] corrupted = Files.readAllBytes(file);
+        Assertions.assertThrows(IllegalStateException.class, () -> memory.get(chatId, 10));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> memory.add(chatId, List.of(new UserMessage("第三条"))));
+        Assertions.assertArrayEquals(corrupted, Files.readAllBytes(file));
+        memory.close();
+    }
+
+    @Test
+    void migrateV1Files() throws Exception {
+        // 按 v1 格式在旧的平铺目录下写一个会话文件：v1 时代的 Kryo 没有任何类注册，所有类都按类名写出
+        List<Message> messages = new ArrayList<>(List.of(new UserMessage("旧格式"), new AssistantMessage("回复")));
+        Kryo v1Kryo = new Kryo();
+        v1Kryo.setRegistrationRequired(false);
+        v1Kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        try (Output out = new Output(Files.newOutputStream(tempDir.resolve("chat-v1.kryo")))) {
+            v1Kryo.writeObject(out, messages);
+        }
+        FileBasedChatMemory memory = new FileBasedChatMemory(tempDir.toString());
+        Assertions.assertEquals(1, memory.migrateToV2());
+        Assertions.assertEquals(0, memory.migrateToV2());
+        List<Message> read = memory.get("chat-v1", 10);
+        Assertions.assertEquals(2, read.size());
+        Assertions.assertEquals("旧格式", read.get(0).getText());
+        Assertions.assertEquals("回复", read.get(1).getText());
+        memory.close();
+    }
+}
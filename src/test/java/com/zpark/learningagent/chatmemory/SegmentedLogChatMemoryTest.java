@@ -0,0 +1,154 @@
+package com.zpark.learningagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+class SegmentedLogChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void addAndGetLastN() {
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 256, 2, 0, 0);
+        String chatId = "chat-1";
+        for (int i = 0; i < 30; i++) {
+            memory.add(chatId, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+        List<Message> last = memory.get(chatId, 4);
+        Assertions.assertEquals(4, last.size());
+        Assertions.assertEquals("问题28", last.get(0).getText());
+        Assertions.assertEquals("回答29", last.get(3).getText());
+
+        // 重新打开后仍能读到全部消息
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 256, 2, 0, 0);
+        Assertions.assertEquals(60, reopened.get(chatId, 100).size());
+    }
+
+    @Test
+    void rebuildMissingIndex() throws Exception {
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1024 * 1024, 2, 0, 0);
+        String chatId = "chat-index";
+        for (int i = 0; i < 20; i++) {
+            memory.add(chatId, List.of(new UserMessage("消息" + i)));
+        }
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            for (Path path : files.filter(p -> p.toString().endsWith(".idx")).toList()) {
+                Files.delete(path);
+            }
+        }
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 1024 * 1024, 2, 0, 0);
+        List<Message> last = reopened.get(chatId, 3);
+        Assertions.assertEquals(3, last.size());
+        Assertions.assertEquals("消息17", last.get(0).getText());
+    }
+
+    @Test
+    void failedAppendIsRolledBackAndReported() throws Exception {
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1024 * 1024, 2, 0, 0);
+        String chatId = "chat-append";
+        memory.add(chatId, List.of(new UserMessage("消息0")));
+        Path dir = ConversationPaths.shardDir(tempDir, chatId).resolve(chatId);
+        Path segment = dir.resolve(String.format("%020d.log", 0));
+        Path index = dir.resolve(String.format("%020d.idx", 0));
+        long segmentSize = Files.size(segment);
+        // 索引位置换成目录，数据写入成功后追加索引一定失败
+        Files.delete(index);
+        Files.createDirectory(index);
+        Assertions.assertThrows(UncheckedIOException.class,
+                () -> memory.add(chatId, List.of(new UserMessage("消息1"))));
+        Assertions.assertEquals(segmentSize, Files.size(segment));
+
+        Files.delete(index);
+        memory.add(chatId, List.of(new UserMessage("消息2")));
+        List<Message> all = memory.get(chatId, 10);
+        Assertions.assertEquals(List.of("消息0", "消息2"), all.stream().map(Message::getText).toList());
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 1024 * 1024, 2, 0, 0);
+        Assertions.assertEquals(List.of("消息0", "消息2"),
+                reopened.get(chatId, 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void compactKeepsRetainedMessages() {
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 128, 2, 10, 0);
+        String chatId = "chat-2";
+        for (int i = 0; i < 40; i++) {
+            memory.add(chatId, List.of(new UserMessage("消息" + i)));
+        }
+        memory.compactAll();
+        List<Message> all = memory.get(chatId, 100);
+        Assertions.assertTrue(all.size() >= 10);
+        Assertions.assertEquals("消息39", all.get(all.size() - 1).getText());
+    }
+
+    @Test
+    void recoverCommittedCompactionOnLoad() throws Exception {
+        String chatId = "chat-crash";
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            memory.add(chatId, List.of(new UserMessage("消息" + i)));
+        }
+        // 模拟合并写完提交标记后崩溃：合并结果还在临时文件里，旧段都还没有替换或删除
+        Path dir = ConversationPaths.shardDir(tempDir, chatId).resolve(chatId);
+        Path first = dir.resolve(String.format("%020d.log", 0));
+        Path second = dir.resolve(String.format("%020d.log", 1));
+        byte[] merged = new byte[(int) (Files.size(first) + Files.size(second))];
+        System.arraycopy(Files.readAllBytes(first), 0, merged, 0, (int) Files.size(first));
+        System.arraycopy(Files.readAllBytes(second), 0, merged, (int) Files.size(first), (int) Files.size(second));
+        Files.write(dir.resolve(first.getFileName() + ".compacting"), merged);
+        Files.write(dir.resolve("compaction.commit"),
+                List.of(first.getFileName().toString(), first.getFileName().toString(), second.getFileName().toString()));
+
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        List<Message> all = reopened.get(chatId, 10);
+        Assertions.assertEquals(List.of("消息0", "消息1", "消息2"), all.stream().map(Message::getText).toList());
+        Assertions.assertFalse(Files.exists(second));
+        Assertions.assertFalse(Files.exists(dir.resolve("compaction.commit")));
+    }
+
+    @Test
+    void discardUncommittedCompaction() throws Exception {
+        String chatId = "chat-uncommitted";
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            memory.add(chatId, List.of(new UserMessage("消息" + i)));
+        }
+        Path dir = ConversationPaths.shardDir(tempDir, chatId).resolve(chatId);
+        Path partial = dir.resolve(String.format("%020d.log", 0) + ".compacting");
+        Files.write(partial, new byte[]{0, 0, 0, 9, 1});
+
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        Assertions.assertEquals(3, reopened.get(chatId, 10).size());
+        Assertions.assertFalse(Files.exists(partial));
+    }
+
+    @Test
+    void compactionSurvivesReopen() {
+        String chatId = "chat-compact";
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        for (int i = 0; i < 6; i++) {
+            memory.add(chatId, List.of(new UserMessage("消息" + i)));
+        }
+        memory.compactAll();
+        SegmentedLogChatMemory reopened = new SegmentedLogChatMemory(tempDir.toString(), 1, 2, 0, 0);
+        Assertions.assertEquals(6, reopened.get(chatId, 10).size());
+    }
+
+    @Test
+    void clear() {
+        SegmentedLogChatMemory memory = new SegmentedLogChatMemory(tempDir.toString(), 1024, 2, 0, 0);
+        memory.add("chat-3", List.of(new UserMessage("你好")));
+        memory.clear("chat-3");
+        Assertions.assertTrue(memory.get("chat-3", 10).isEmpty());
+    }
+}
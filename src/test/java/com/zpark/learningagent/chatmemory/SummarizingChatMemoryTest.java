@@ -0,0 +1,111 @@
+package com.zpark.learningagent.chatmemory;
+
+import com.zpark.learningagent.utils.TokenEstimator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class SummarizingChatMemoryTest {
+
+    private static final int BUDGET = 200;
+
+    /**
+     * 记录收到的提示词，固定返回一段摘要
+     */
+    private static class StubChatModel implements ChatModel {
+        private final List<String> prompts = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            prompts.add(prompt.getContents());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("学习者想学 Java 后端"))));
+        }
+    }
+
+    private static void addTurns(ChatMemory memory, String chatId, int from, int to) {
+        for (int i = from; i < to; i++) {
+            memory.add(chatId, List.of(new UserMessage("问题" + i + "：" + "如何安排学习时间".repeat(3)),
+                    new AssistantMessage("回答" + i + "：" + "建议每天固定两个小时".repeat(3))));
+        }
+    }
+
+    private static List<Message> awaitSummary(ChatMemory memory, String chatId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            List<Message> messages = memory.get(chatId, 100);
+            if (!messages.isEmpty() && messages.get(0).getText().startsWith("【之前对话的摘要】")) {
+                return messages;
+            }
+            Thread.sleep(50);
+        }
+        Assertions.fail("摘要没有生成");
+        return List.of();
+    }
+
+    @Test
+    void foldsCompleteTurnsWithinBudget() throws Exception {
+        StubChatModel model = new StubChatModel();
+        SummarizingChatMemory memory = new SummarizingChatMemory(new InMemoryChatMemory(), model, BUDGET, 200);
+        addTurns(memory, "chat-1", 0, 6);
+
+        awaitSummary(memory, "chat-1");
+        memory.close();
+        List<Message> messages = memory.get("chat-1", 100);
+        Assertions.assertTrue(model.prompts.get(0).contains("问题0"));
+        // 只折叠完整的轮次：被折叠的对话以助手的回答结尾
+        for (String prompt : model.prompts) {
+            String[] lines = prompt.strip().split("\n");
+            Assertions.assertTrue(lines[lines.length - 1].startsWith("助手："), prompt);
+        }
+        // 不会把摘要标记返回给调用方
+        Assertions.assertTrue(messages.stream().noneMatch(m -> m.getText().startsWith(SummarizingChatMemory.SUMMARY_MARKER)));
+        int tokens = messages.stream().mapToInt(TokenEstimator::estimate).sum();
+        Assertions.assertTrue(tokens <= BUDGET + TokenEstimator.estimate("【之前对话的摘要】"), "tokens=" + tokens);
+        Assertions.assertTrue(messages.get(messages.size() - 1).getText().startsWith("回答5"));
+    }
+
+    @Test
+    void getReturnsAllMessagesUnderBudget() {
+        StubChatModel model = new StubChatModel();
+        SummarizingChatMemory memory = new SummarizingChatMemory(new InMemoryChatMemory(), model, BUDGET, 200);
+        memory.add("chat-2", List.of(new UserMessage("你好"), new AssistantMessage("你好，我是学习规划导师")));
+        List<Message> messages = memory.get("chat-2", 10);
+        Assertions.assertEquals(2, messages.size());
+        Assertions.assertEquals("你好", messages.get(0).getText());
+        Assertions.assertEquals(1, memory.get("chat-2", 1).size());
+        Assertions.assertTrue(model.prompts.isEmpty());
+    }
+
+    @Test
+    void summarySurvivesRestart() throws Exception {
+        ChatMemory store = new InMemoryChatMemory();
+        StubChatModel model = new StubChatModel();
+        SummarizingChatMemory memory = new SummarizingChatMemory(store, model, BUDGET, 200);
+        addTurns(memory, "chat-3", 0, 6);
+        awaitSummary(memory, "chat-3");
+        memory.close();
+        List<Message> before = memory.get("chat-3", 100);
+
+        // 新实例只依赖底层存储恢复摘要和未摘要的消息
+        SummarizingChatMemory reopened = new SummarizingChatMemory(store, model, BUDGET, 200);
+        List<Message> after = reopened.get("chat-3", 100);
+        Assertions.assertEquals(before.stream().map(Message::getText).toList(),
+                after.stream().map(Message::getText).toList());
+
+        // 恢复后继续对话，新的消息在摘要之后
+        reopened.add("chat-3", List.of(new UserMessage("下一步呢")));
+        List<Message> next = reopened.get("chat-3", 100);
+        Assertions.assertEquals("下一步呢", next.get(next.size() - 1).getText());
+        Assertions.assertTrue(next.get(0).getText().startsWith("【之前对话的摘要】"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.zpark.learningagent.ratelimit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class AdmissionLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void userBucketRejectsBurstAndRefills() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1, 2, 10, 100, 100, 10, 0, now::get);
+        limiter.acquire("a", 1).close();
+        limiter.acquire("a", 1).close();
+        RateLimitedException e = Assertions.assertThrows(RateLimitedException.class,
+                () -> limiter.acquire("a", 1));
+        Assertions.assertEquals(AdmissionLimiter.USER_RATE, e.getReason());
+        Assertions.assertEquals(1, e.getRetryAfterSeconds());
+        // 其他用户不受影响
+        limiter.acquire("b", 1).close();
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.acquire("a", 1).close();
+        Assertions.assertEquals(1, limiter.stats().rejectedUserRate());
+    }
+
+    @Test
+    void globalBucketIsSharedAcrossUsers() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1, 5, 10, 1, 1, 10, 0, now::get);
+        limiter.acquire("a", 1).close();
+        RateLimitedException e = Assertions.assertThrows(RateLimitedException.class,
+                () -> limiter.acquire("b", 1));
+        Assertions.assertEquals(AdmissionLimiter.GLOBAL_RATE, e.getReason());
+    }
+
+    @Test
+    void concurrencyLimitsReleaseOnClose() {
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 100, 100, 1, 100, 100, 2, 0, now::get);
+        AdmissionLimiter.Permit first = limiter.acquire("a", 1);
+        Assertions.assertEquals(AdmissionLimiter.USER_CONCURRENCY,
+                Assertions.assertThrows(RateLimitedException.class, () -> limiter.acquire("a", 1)).getReason());
+
+        AdmissionLimiter.Permit second = limiter.acquire("b", 1);
+        Assertions.assertEquals(AdmissionLimiter.GLOBAL_CONCURRENCY,
+                Assertions.assertThrows(RateLimitedException.class, () -> limiter.acquire("c", 1)).getReason());
+        Assertions.assertEquals(2, limiter.stats().inFlight());
+
+        first.close();
+        // 重复关闭只释放一次
+        first.close();
+        second.close();
+        Assertions.assertEquals(0, limiter.stats().inFlight());
+        limiter.acquire("a", 1).close();
+        limiter.acquire("c", 1).close();
+    }
+
+    @Test
+    void rotatingUserKeysStillShareTheAddressLimit() {
+        // 用户级别每人 1 个令牌、1 个并发，地址级别 3 个令牌、2 个并发
+        AdmissionLimiter limiter = new AdmissionLimiter(true, 1, 1, 1, 1, 3, 2, 100, 100, 10, 0, now::get);
+        AdmissionLimiter.Permit first = limiter.acquire("chat:1", "ip:10.0.0.1", 1);
+        AdmissionLimiter.Permit second = limiter.acquire("chat:2", "ip:10.0.0.1", 1);
+        Assertions.assertEquals(AdmissionLimiter.ADDRESS_CONCURRENCY, Assertions.assertThrows(RateLimitedException.class,
+                () -> limiter.acquire("chat:3", "ip:10.0.0.1", 1)).getReason());
+        first.close();
+        second.close();
+        limiter.acquire("chat:4", "ip:10.0.0.1", 1).close();
+        // 每次都换新的 chatId，地址的令牌桶仍然会耗尽
+        Assertions.assertEquals(AdmissionLimiter.ADDRESS_RATE, Assertions.assertThrows(RateLimitedException.class,
+                () -> limiter.acquire("chat:5", "ip:10.0.0.1", 1)).getReason());
+        // 其他地址不受影响
+        limiter.acquire("chat:6", "ip:10.0.0.2", 1).close();
+        Assertions.assertEquals(1, limiter.stats().rejectedAddressRate());
+        Assertions.assertEquals(1, limiter.stats().rejectedAddressConcurrency());
+    }
+
+    @Test
+    void disabledLimiterAdmitsEverything() {
+        AdmissionLimiter limiter = new AdmissionLimiter(false, 1, 1, 1, 1, 1, 1, 0, now::get);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire("a", 1);
+        }
+        Assertions.assertEquals(0, limiter.stats().admitted());
+    }
+}
@@ -0,0 +1,108 @@
+package com.zpark.learningagent.tools;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ToolResultCacheTest {
+
+    @Test
+    public void testNormalizedArgumentsHitCache() {
+        ToolResultCache cache = new ToolResultCache(10);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("searchWeb", "{\"query\":\"java\",\"page\":1}", Duration.ofMinutes(1),
+                () -> "result" + calls.incrementAndGet());
+        String cached = cache.get("searchWeb", "{ \"page\": 1, \"query\": \"java\" }", Duration.ofMinutes(1),
+                () -> "result" + calls.incrementAndGet());
+        Assertions.assertEquals("result1", cached);
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testErrorResultNotCached() {
+        ToolResultCache cache = new ToolResultCache(10);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("searchWeb", "{}", Duration.ofMinutes(1), () -> "\"Error searching Baidu: timeout\"");
+        cache.get("searchWeb", "{}", Duration.ofMinutes(1), () -> "ok" + calls.incrementAndGet());
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneRequest() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cache.get("scrapeWebPage", "{\"url\":\"https://example.com\"}", Duration.ofMinutes(1), () -> {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "page";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> future : futures) {
+            Assertions.assertEquals("page", future.get());
+        }
+        executor.shutdown();
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testInterruptedFollowerStopsWaiting() throws Exception {
+        ToolResultCache cache = new ToolResultCache(10);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> leader = executor.submit(() -> cache.get("searchWeb", "{}", Duration.ofMinutes(1), () -> {
+            leaderStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "ok";
+        }));
+        leaderStarted.await();
+        AtomicReference<String> followerResult = new AtomicReference<>();
+        AtomicBoolean followerInterrupted = new AtomicBoolean();
+        Thread follower = new Thread(() -> {
+            followerResult.set(cache.get("searchWeb", "{}", Duration.ofMinutes(1), () -> "unexpected"));
+            followerInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        follower.start();
+        while (cache.stats().coalesced() == 0) {
+            Thread.sleep(10);
+        }
+        // 领头的调用还没有返回，跟随者被中断后应立即放弃等待
+        follower.interrupt();
+        follower.join(2_000);
+        Assertions.assertFalse(follower.isAlive());
+        Assertions.assertTrue(followerResult.get().startsWith("Error"), followerResult.get());
+        Assertions.assertTrue(followerInterrupted.get());
+        Assertions.assertFalse(leader.isDone());
+
+        release.countDown();
+        Assertions.assertEquals("ok", leader.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
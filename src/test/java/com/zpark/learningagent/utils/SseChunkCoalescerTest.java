@@ -0,0 +1,45 @@
+package com.zpark.learningagent.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+class SseChunkCoalescerTest {
+
+    @Test
+    void firstChunkIsImmediateAndSentenceEndFlushes() {
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(true, 10_000, 1024, true);
+        List<String> frames = coalescer.coalesce(Flux.just("你", "好，", "我是", "导师。", "请问", "目标"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        Assertions.assertEquals(List.of("你", "好，我是导师。", "请问目标"), frames);
+    }
+
+    @Test
+    void byteThresholdFlushes() {
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(true, 10_000, 4, false);
+        List<String> frames = coalescer.coalesce(Flux.just("a", "bb", "cc", "d"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        Assertions.assertEquals(List.of("a", "bbcc", "d"), frames);
+    }
+
+    @Test
+    void timeWindowFlushesSlowStreams() {
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(true, 20, 1024, false);
+        List<String> frames = coalescer.coalesce(Flux.just("a", "b", "c").delayElements(Duration.ofMillis(100)))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        Assertions.assertEquals(List.of("a", "b", "c"), frames);
+    }
+
+    @Test
+    void disabledPassesChunksThrough() {
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(false, 40, 512, true);
+        List<String> frames = coalescer.coalesce(Flux.just("a", "b")).collectList().block(Duration.ofSeconds(5));
+        Assertions.assertEquals(List.of("a", "b"), frames);
+    }
+}